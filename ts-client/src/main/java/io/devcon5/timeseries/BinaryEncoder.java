@@ -0,0 +1,171 @@
+package io.devcon5.timeseries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoder for the compact binary format of the timeseries collector, sent with content type
+ * {@value #CONTENT_TYPE}. A request body consists of a header and a sequence of datapoints until the end of the
+ * body:
+ * <pre>
+ *     body      := 'T' 'S' version(1) datapoint*
+ *     datapoint := varint(zigzag(timestamp - previous timestamp)) string(name)
+ *                  varint(#tags) (string(key) string(value))*
+ *                  varint(#values) (string(field) type value)*
+ *     type      := 0 (value is a 8 byte IEEE 754 double, big endian) | 1 (value is a varint(zigzag(long)))
+ *     string    := varint(0) varint(#bytes) utf-8 bytes | varint(index + 1)
+ * </pre>
+ * Varints use 7 bits per byte, least significant group first, with the high bit set on all but the last byte. The
+ * timestamp of the first datapoint is relative to 0. Each string is written once per body and is referred to by its
+ * index afterwards, so names, tag keys and tag values that are repeated in the batch cost only a byte or two.
+ * <br>
+ * The encoder is not thread-safe.
+ */
+final class BinaryEncoder {
+
+    /**
+     * The content type of the binary format
+     */
+    static final String CONTENT_TYPE = "application/x-timeseries";
+
+    static final int VERSION = 1;
+
+    static final int DOUBLE = 0;
+
+    static final int LONG = 1;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    private byte[] buffer = new byte[256];
+
+    private int length;
+
+    private long lastTimestamp;
+
+    BinaryEncoder() {
+        writeByte('T');
+        writeByte('S');
+        writeByte(VERSION);
+    }
+
+    /**
+     * Appends a datapoint to the body.
+     * @param dp
+     *  the datapoint to append
+     * @return
+     *  this encoder
+     * @throws IllegalStateException
+     *  if the datapoint has no values or a value is NaN or infinite. Nothing is appended in that case.
+     */
+    BinaryEncoder add(Datapoint dp) {
+
+        //copy the entries first, as the datapoint may be modified concurrently
+        final Object[] values = dp.getValues().entrySet().toArray();
+        if (values.length == 0) {
+            throw new IllegalStateException("At least one value must be set");
+        }
+        for (Object v : values) {
+            @SuppressWarnings("unchecked")
+            final Map.Entry<String, Number> value = (Map.Entry<String, Number>) v;
+            Datapoint.requireFinite(value.getKey(), value.getValue());
+        }
+        final Object[] tags = dp.getTags().entrySet().toArray();
+        writeVarLong(zigzag(dp.getTimestamp() - lastTimestamp));
+        lastTimestamp = dp.getTimestamp();
+        writeString(dp.getName());
+        writeVarLong(tags.length);
+        for (Object t : tags) {
+            @SuppressWarnings("unchecked")
+            final Map.Entry<String, String> tag = (Map.Entry<String, String>) t;
+            writeString(tag.getKey());
+            writeString(tag.getValue());
+        }
+        writeVarLong(values.length);
+        for (Object v : values) {
+            @SuppressWarnings("unchecked")
+            final Map.Entry<String, Number> value = (Map.Entry<String, Number>) v;
+            writeString(value.getKey());
+            final Number number = value.getValue();
+            if (number instanceof Long || number instanceof Integer
+                    || number instanceof Short || number instanceof Byte) {
+                writeByte(LONG);
+                writeVarLong(zigzag(number.longValue()));
+            } else {
+                writeByte(DOUBLE);
+                writeDouble(number.doubleValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The number of bytes encoded so far
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Creates the body of all datapoints added so far
+     * @return
+     *  the encoded datapoints
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void writeString(String s) {
+
+        final Integer index = strings.get(s);
+        if (index != null) {
+            writeVarLong(index + 1L);
+            return;
+        }
+        strings.put(s, strings.size());
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeByte(0);
+        writeVarLong(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeDouble(double value) {
+
+        ensureCapacity(8);
+        final long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[length++] = (byte) (bits >>> shift);
+        }
+    }
+
+    private void writeVarLong(long value) {
+
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (length + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+        }
+    }
+
+    /**
+     * Maps signed to unsigned values, so that small negative values are encoded in few bytes, too
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
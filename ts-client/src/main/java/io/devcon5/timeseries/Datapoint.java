@@ -133,9 +133,7 @@ public class Datapoint {
      *  this datapoint as a string in dataformat.
      */
     public String toJsonString() {
-        if(values.isEmpty()){
-            throw new IllegalStateException("At least one value must be set");
-        }
+        requireValues();
         return jsonObjectJoiner().add(property("name", this.name))
                                  .add(property("timestamp", this.timestamp))
                                  .add(property("tags", toJsonObject(this.tags)))
@@ -143,4 +141,32 @@ public class Datapoint {
                                  .toString();
     }
 
+    /**
+     * Verifies that this datapoint is complete and all of its values can be encoded.
+     * @throws IllegalStateException
+     *  if no value has been set or a value is NaN or infinite
+     */
+    void requireValues() {
+        if(values.isEmpty()){
+            throw new IllegalStateException("At least one value must be set");
+        }
+        values.forEach(Datapoint::requireFinite);
+    }
+
+    /**
+     * Verifies that a value is a finite number, as neither JSON nor the collector support NaN or infinite values.
+     * @param valueName
+     *  the name of the value
+     * @param value
+     *  the value to check
+     * @throws IllegalStateException
+     *  if the value is NaN or infinite
+     */
+    static void requireFinite(String valueName, Number value) {
+        final double d = value.doubleValue();
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new IllegalStateException("Value " + valueName + " is not finite: " + value);
+        }
+    }
+
 }
@@ -4,12 +4,28 @@ import static java.util.logging.Logger.getLogger;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,15 +36,56 @@ import java.util.logging.Logger;
  * property. The default is set to '1', creating a single-thread thread pool.
  * If the property is set to '0', the same thread as the caller is used for sending the timeseries datapoint, resulting
  * in blocking behavior.
+ * <br>
+ * On JVMs supporting virtual threads, the {{timeseries.connection.mode}} system property may be set to 'virtual', so
+ * that each send command runs on its own virtual thread. The number of concurrent connections is then limited by the
+ * {{timeseries.connection.max}} system property (default '64') instead of the size of a thread pool. On older JVMs
+ * the thread pool is used.
+ * <br>
+ * Datapoints are sent in batches. A batch is started by the first datapoint stored and sent once the executor runs
+ * the send command of the batch, all datapoints stored in the meantime are added to that batch, up to the maximum
+ * batch size defined by the {{timeseries.batch.size}} system property (default '1000'). So the batches grow with the
+ * load of the executor, while a same-thread executor sends each datapoint immediately.
+ * <br>
+ * By default each JSON datapoint is sent as a single JSON object, which all collector versions accept. If the
+ * {{timeseries.batch.array}} system property is set to 'true', batches of multiple datapoints are sent as JSON array
+ * instead. JSON arrays are only accepted by collectors of the same version or later.
+ * <br>
+ * If the {{timeseries.protocol}} system property is set to 'binary', batches are sent in the compact binary format
+ * of {@link BinaryEncoder} with content type 'application/x-timeseries' instead of JSON. The format is only
+ * supported by collectors of the same version or later.
  */
 public class TimeSeriesClient {
 
     private static final Logger LOG = getLogger(TimeSeriesClient.class.getName());
 
+    /**
+     * Factory method for virtual thread executors, null if the JVM doesn't support virtual threads
+     */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
     private final URL target;
 
     private final Executor executor;
 
+    private final boolean binary = "binary".equals(System.getProperty("timeseries.protocol", "json"));
+
+    /**
+     * JSON datapoints are only batched if they may be sent as JSON array, older collectors expect a JSON object
+     */
+    private final int maxBatchSize = binary || Boolean.getBoolean("timeseries.batch.array")
+                                     ? Integer.getInteger("timeseries.batch.size", 1000)
+                                     : 1;
+
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final Object lock = new Object();
+
+    /**
+     * The batch currently collecting datapoints, guarded by lock
+     */
+    private Batch pending;
+
     private TimeSeriesClient(URL target, Executor executor) {
         this.target = target;
         this.executor = executor;
@@ -117,14 +174,72 @@ public class TimeSeriesClient {
         return new TimeSeriesClient(target, executor);
     }
 
+    /**
+     * Indicates whether the JVM supports virtual threads.
+     * @return
+     *  true if virtual thread executors can be created
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that runs each send command on a new virtual thread. A blocked send only blocks its
+     * virtual thread, so many slow sends can be in progress without a large platform thread pool.
+     * @param maxConnections
+     *  the maximum number of send commands running concurrently, each using a connection to the collector
+     * @return
+     *  the executor or an empty optional if the JVM doesn't support virtual threads
+     */
+    public static Optional<Executor> virtualThreadExecutor(int maxConnections) {
+
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            return Optional.empty();
+        }
+        final Executor virtualThreads;
+        try {
+            virtualThreads = (Executor) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOG.log(Level.WARNING, "Could not create virtual thread executor", e);
+            return Optional.empty();
+        }
+        final Semaphore connections = new Semaphore(maxConnections);
+        return Optional.of(command -> virtualThreads.execute(() -> {
+            connections.acquireUninterruptibly();
+            try {
+                command.run();
+            } finally {
+                connections.release();
+            }
+        }));
+    }
+
+    private static Method findVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     /**
      * Creates the default executor depending on the number of threads configured in the system property
-     * {{timeseries.connection.pool}}. If the system property is not set, the default '1' is used. The system
-     * property may be changed at runtime affecting newly created timeseries clients.
+     * {{timeseries.connection.pool}}. If the system property is not set, the default '1' is used. If the system
+     * property {{timeseries.connection.mode}} is set to 'virtual' and the JVM supports virtual threads, a virtual
+     * thread executor is created instead, using at most {{timeseries.connection.max}} concurrent connections.
+     * The system properties may be changed at runtime affecting newly created timeseries clients.
      * @return
      *  an executor for running  the actual send command
      */
     private static Executor defaultExecutor() {
+        if ("virtual".equals(System.getProperty("timeseries.connection.mode"))) {
+            final Optional<Executor> virtual = virtualThreadExecutor(Integer.getInteger("timeseries.connection.max",
+                                                                                        64));
+            if (virtual.isPresent()) {
+                return virtual.get();
+            }
+            LOG.info("Virtual threads are not supported, using thread pool");
+        }
         final int numThreads = Integer.getInteger("timeseries.connection.pool", 1);
         if (numThreads == 0) {
             return Runnable::run;
@@ -134,46 +249,196 @@ public class TimeSeriesClient {
     }
 
     /**
-     * Sends a datapoint to the time series collector for further processing.
+     * Sends a datapoint to the time series collector for further processing. This is a fire-and-forget method,
+     * failures and invalid datapoints are only logged.
      * @param dp
      *  the datapoint to store
      */
     public void store(Datapoint dp) {
-        store(dp.toJsonString(),"application/json");
+        storeAsync(dp);
     }
 
     /**
      * Sends a datapoint to the time series collector for further processing.
-     * @param datapoint
-     *  the datapoint as a string
-     * @param contentType
-     *  the content type of the string-datapoint. If sending json data, use 'application/json'
+     * @param dp
+     *  the datapoint to store
+     * @return
+     *  a future that is completed when the collector accepted the batch containing the datapoint, or completed
+     *  exceptionally if the datapoint is invalid or the batch could not be sent. Each call returns its own future,
+     *  completing or cancelling it doesn't affect other datapoints of the same batch.
      */
-    private void store(String datapoint, String contentType) {
-        this.executor.execute(() -> {
-            try {
-                final HttpURLConnection conn = (HttpURLConnection) this.target.openConnection();
-                final byte[] data = datapoint.getBytes(Charset.defaultCharset());
-                conn.setDoOutput(true);
-                conn.setRequestMethod("POST");
-                conn.setChunkedStreamingMode(512 * 1024);
-                conn.setRequestProperty("Content-Type", contentType);
-                conn.setRequestProperty("Content-Length", String.valueOf(data.length));
-                conn.connect();
-                try (OutputStream os = conn.getOutputStream()) {
-                    os.write(data);
-                    os.flush();
-                } finally {
-                    int responseCode = conn.getResponseCode();
-                    if( responseCode >= 400) {
-                        LOG.warning("Sending timeseries data failed with code " + responseCode);
-                    }
-                    conn.disconnect();
+    public CompletableFuture<Void> storeAsync(Datapoint dp) {
+        return storeAll(Collections.singletonList(dp));
+    }
+
+    /**
+     * Sends multiple datapoints to the time series collector for further processing.
+     * @param dps
+     *  the datapoints to store
+     * @return
+     *  a future that is completed when the collector accepted all batches containing the datapoints, or completed
+     *  exceptionally if any of the datapoints is invalid or any of the batches could not be sent. If a datapoint
+     *  has no values or a NaN or infinite value, none of the datapoints is stored, without affecting the batches
+     *  of other callers.
+     */
+    public CompletableFuture<Void> storeAll(Collection<Datapoint> dps) {
+
+        try {
+            //check the datapoints before adding them to a batch shared with other callers
+            dps.forEach(Datapoint::requireValues);
+        } catch (IllegalStateException e) {
+            LOG.log(Level.WARNING, "Could not store invalid timeseries datapoints", e);
+            final CompletableFuture<Void> invalid = new CompletableFuture<>();
+            invalid.completeExceptionally(e);
+            return invalid;
+        }
+        if (binary) {
+            return enqueue(dps, (batch, dp) -> batch.encoder.add(dp));
+        }
+        final List<String> datapoints = new ArrayList<>(dps.size());
+        for (Datapoint dp : dps) {
+            datapoints.add(dp.toJsonString());
+        }
+        return enqueue(datapoints, (batch, dp) -> batch.datapoints.add(dp));
+    }
+
+    /**
+     * Creates a future that completes when all batches that have been stored before have been sent, regardless of
+     * their outcome. Use {@code flush().join()} to wait for all pending datapoints before shutting down.
+     * @return
+     *  a future that completes when all in-flight batches are completed
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).handle((result, e) -> null);
+    }
+
+    /**
+     * Adds the datapoints to the pending batch. New batches are created as needed and are scheduled for sending.
+     * @param datapoints
+     *  the datapoints as json strings or datapoints to be encoded
+     * @param add
+     *  the function adding a single datapoint to a batch
+     * @return
+     *  a future depending on the batch containing all datapoints or a future combining all batches if the
+     *  datapoints did not fit into a single batch
+     */
+    private <T> CompletableFuture<Void> enqueue(Collection<T> datapoints, BiConsumer<Batch, T> add) {
+
+        final List<Batch> created = new ArrayList<>();
+        final Set<CompletableFuture<Void>> futures = new LinkedHashSet<>();
+        synchronized (lock) {
+            for (T dp : datapoints) {
+                if (pending == null) {
+                    pending = new Batch(binary);
+                    inFlight.add(pending.future);
+                    created.add(pending);
                 }
-            } catch (IOException e) {
-                LOG.log(Level.WARNING, "Could not send timeseries datapoint ", e);
+                add.accept(pending, dp);
+                pending.size++;
+                futures.add(pending.future);
+                if (pending.size >= maxBatchSize) {
+                    pending = null;
+                }
+            }
+        }
+        created.forEach(this::schedule);
+        if (futures.size() == 1) {
+            //a dependent future, so the caller can't complete the future of the batch
+            return futures.iterator().next().thenApply(Function.identity());
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void schedule(Batch batch) {
+
+        batch.future.whenComplete((result, e) -> inFlight.remove(batch.future));
+        try {
+            this.executor.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            LOG.log(Level.WARNING, "Could not send timeseries datapoints", e);
+            batch.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Sends a batch of datapoints to the time series collector. Once the sending started, no more datapoints
+     * are added to the batch. A single datapoint is sent as json object, multiple datapoints as json array, unless
+     * the binary format is used. Batches of multiple json datapoints only exist if json arrays are enabled.
+     * @param batch
+     *  the batch to send
+     */
+    private void send(Batch batch) {
+
+        synchronized (lock) {
+            if (pending == batch) {
+                pending = null;
+            }
+        }
+        try {
+            if (batch.encoder != null) {
+                store(batch.encoder.toByteArray(), BinaryEncoder.CONTENT_TYPE);
+            } else if (batch.datapoints.size() == 1) {
+                store(batch.datapoints.get(0).getBytes(Charset.defaultCharset()), "application/json");
+            } else {
+                final StringJoiner array = JsonHelper.jsonArrayJoiner();
+                batch.datapoints.forEach(array::add);
+                store(array.toString().getBytes(Charset.defaultCharset()), "application/json");
+            }
+            batch.future.complete(null);
+        } catch (IOException | RuntimeException e) {
+            //any failure must complete the future, otherwise the batch is never removed from the in-flight batches
+            LOG.log(Level.WARNING, "Could not send timeseries datapoints", e);
+            batch.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Sends datapoints to the time series collector for further processing.
+     * @param data
+     *  the encoded datapoints
+     * @param contentType
+     *  the content type of the datapoints, 'application/json' or the content type of the binary format
+     * @throws IOException
+     *  if the datapoints could not be sent or the collector responded with an error
+     */
+    private void store(byte[] data, String contentType) throws IOException {
+
+        final HttpURLConnection conn = (HttpURLConnection) this.target.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setChunkedStreamingMode(512 * 1024);
+        conn.setRequestProperty("Content-Type", contentType);
+        conn.setRequestProperty("Content-Length", String.valueOf(data.length));
+        conn.connect();
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(data);
+            os.flush();
+        } finally {
+            int responseCode = conn.getResponseCode();
+            conn.disconnect();
+            if (responseCode >= 400) {
+                throw new IOException("Sending timeseries data failed with code " + responseCode);
             }
-        });
+        }
+    }
+
+    /**
+     * A batch of datapoints and the future completed when the batch was sent. The datapoints are either kept as json
+     * strings or encoded in binary format.
+     */
+    private static class Batch {
+
+        private final List<String> datapoints = new ArrayList<>();
+
+        private final BinaryEncoder encoder;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private int size;
+
+        private Batch(boolean binary) {
+            this.encoder = binary ? new BinaryEncoder() : null;
+        }
     }
 
 }
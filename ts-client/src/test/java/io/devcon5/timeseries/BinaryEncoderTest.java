@@ -0,0 +1,74 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BinaryEncoderTest {
+
+    private final SeriesDictionary dictionary = new SeriesDictionary();
+
+    @Test
+    public void add_decodedByCollector() throws Exception {
+
+        final BinaryEncoder encoder = new BinaryEncoder();
+        encoder.add(new Datapoint("cpu", 1000L).addTag("host", "web 01").addValue("load", 12).addValue("temp", 36.6));
+        encoder.add(new Datapoint("cpu", 900L).addTag("host", "w\u00e9b02").addValue("load", -3L));
+        encoder.add(new Datapoint("cpu", 2000L).addTag("host", "web 01").addValue("load", Long.MAX_VALUE / 4));
+
+        final ColumnarBatch batch = BinaryDecoder.decode(encoder.toByteArray(), dictionary);
+
+        assertEquals(3, batch.size());
+        assertEquals(2, dictionary.size());
+        assertEquals("cpu,host=web 01", batch.getSeries(0).getKey());
+        assertEquals("cpu,host=w\u00e9b02", batch.getSeries(1).getKey());
+        assertEquals(batch.getSeriesId(0), batch.getSeriesId(2));
+        assertEquals(1000L, batch.getTimestamp(0));
+        assertEquals(900L, batch.getTimestamp(1));
+        assertEquals(2000L, batch.getTimestamp(2));
+        assertEquals(12.0, value(batch, "load", 0), 0.0);
+        assertEquals(36.6, value(batch, "temp", 0), 0.0);
+        assertEquals(-3.0, value(batch, "load", 1), 0.0);
+        assertEquals((double) (Long.MAX_VALUE / 4), value(batch, "load", 2), 0.0);
+    }
+
+    @Test
+    public void add_repeatedStrings_referenced() throws Exception {
+
+        final BinaryEncoder encoder = new BinaryEncoder();
+        encoder.add(new Datapoint("measurement", 1000L).addTag("hostname", "localhost").addValue("value", 1));
+        final int first = encoder.length();
+
+        encoder.add(new Datapoint("measurement", 1001L).addTag("hostname", "localhost").addValue("value", 2));
+
+        //delta, name, #tags, key, value, #values, field, type, value
+        assertEquals(9, encoder.length() - first);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_noValues_fails() throws Exception {
+
+        new BinaryEncoder().add(new Datapoint("cpu"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_infiniteValue_fails() throws Exception {
+
+        new BinaryEncoder().add(new Datapoint("cpu").addValue("load", Double.POSITIVE_INFINITY));
+    }
+
+    private static double value(ColumnarBatch batch, String field, int row) {
+
+        for (int f = 0; f < batch.getFieldCount(); f++) {
+            if (field.equals(batch.getFieldName(f))) {
+                return batch.getValue(f, row);
+            }
+        }
+        assertTrue("no field " + field, false);
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,118 @@
+package io.devcon5.timeseries;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the json and the binary format by the size of the request body and the cpu time needed by the client to
+ * encode the datapoints and by the collector to decode them into a {@link ColumnarBatch}. The datapoints are spread
+ * over 100 series with two tags, each datapoint has a long and a double value.
+ * <br>
+ * With Vert.x 3.3.3 (jackson-databind 2.7.4) on JDK 8, the last of three rounds measured
+ * <pre>
+ *     json     137.9 bytes/point, encode    824 ns/point, decode   1066 ns/point
+ *     binary    22.7 bytes/point, encode    128 ns/point, decode    105 ns/point
+ * </pre>
+ */
+@Ignore("Benchmark, run manually")
+public class BinaryProtocolBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int ITERATIONS = 2000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final SeriesDictionary dictionary = new SeriesDictionary();
+
+    @Test
+    public void compare() throws Exception {
+
+        final List<Datapoint> datapoints = datapoints();
+        for (int round = 0; round < 3; round++) {
+            json(datapoints);
+            binary(datapoints);
+        }
+    }
+
+    private void json(List<Datapoint> datapoints) {
+
+        long bytes = 0;
+        long encode = 0;
+        long decode = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = THREADS.getCurrentThreadCpuTime();
+            final StringJoiner array = JsonHelper.jsonArrayJoiner();
+            datapoints.forEach(dp -> array.add(dp.toJsonString()));
+            final byte[] body = array.toString().getBytes(Charset.defaultCharset());
+            final long encoded = THREADS.getCurrentThreadCpuTime();
+            final JsonArray parsed = Buffer.buffer(body).toJsonArray();
+            final ColumnarBatch.Builder batch = new ColumnarBatch.Builder(dictionary, parsed.size());
+            for (int j = 0; j < parsed.size(); j++) {
+                batch.add(parsed.getJsonObject(j));
+            }
+            consume(batch.build());
+            decode += THREADS.getCurrentThreadCpuTime() - encoded;
+            encode += encoded - start;
+            bytes += body.length;
+        }
+        report("json", bytes, encode, decode);
+    }
+
+    private void binary(List<Datapoint> datapoints) {
+
+        long bytes = 0;
+        long encode = 0;
+        long decode = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = THREADS.getCurrentThreadCpuTime();
+            final BinaryEncoder encoder = new BinaryEncoder();
+            datapoints.forEach(encoder::add);
+            final byte[] body = encoder.toByteArray();
+            final long encoded = THREADS.getCurrentThreadCpuTime();
+            consume(BinaryDecoder.decode(body, dictionary));
+            decode += THREADS.getCurrentThreadCpuTime() - encoded;
+            encode += encoded - start;
+            bytes += body.length;
+        }
+        report("binary", bytes, encode, decode);
+    }
+
+    private static List<Datapoint> datapoints() {
+
+        final List<Datapoint> datapoints = new ArrayList<>(BATCH_SIZE);
+        final long start = 1480000000000L;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            datapoints.add(new Datapoint("http.requests", start + i * 10L).addTag("host", "web" + (i % 100))
+                                                                           .addTag("region", "eu-central-1")
+                                                                           .addValue("count", 1000L + i)
+                                                                           .addValue("latency", 12.5 + i % 7));
+        }
+        return datapoints;
+    }
+
+    private static void consume(ColumnarBatch batch) {
+        if (batch.size() != BATCH_SIZE) {
+            throw new IllegalStateException("Decoded " + batch.size() + " datapoints");
+        }
+    }
+
+    private static void report(String format, long bytes, long encodeNanos, long decodeNanos) {
+
+        final double points = (double) BATCH_SIZE * ITERATIONS;
+        System.out.printf("%-8s %6.1f bytes/point, encode %6.0f ns/point, decode %6.0f ns/point%n",
+                          format,
+                          bytes / points,
+                          encodeNanos / points,
+                          decodeNanos / points);
+    }
+}
@@ -13,7 +13,7 @@ import io.vertx.ext.unit.Async;
 /**
  * Verticle that accepts datapoints and keeps them in a local list, so that tests can retrieve them. The number of
  * expected messages should be defined in the Async CountDown latch, defined by the syncpoint method. Otherwise no
- * guarantees can be made about the received datapoints.
+ * guarantees can be made about the received datapoints. Columnar batches are recorded as one json datapoint per row.
  */
 public class TestRecorderVerticle extends AbstractVerticle {
 
@@ -34,9 +34,17 @@ public class TestRecorderVerticle extends AbstractVerticle {
 
         vertx.eventBus().consumer(this.address, msg -> {
             LOG.info("RCV: " + msg.body());
-            JsonObject json = (JsonObject) msg.body();
-            this.messages.add(json);
-            syncpoint.countDown();
+            if (msg.body() instanceof ColumnarBatch) {
+                final ColumnarBatch batch = (ColumnarBatch) msg.body();
+                for (int row = 0; row < batch.size(); row++) {
+                    this.messages.add(batch.toJson(row));
+                    syncpoint.countDown();
+                }
+            } else {
+                JsonObject json = (JsonObject) msg.body();
+                this.messages.add(json);
+                syncpoint.countDown();
+            }
         });
     }
 
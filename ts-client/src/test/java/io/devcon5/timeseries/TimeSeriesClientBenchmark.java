@@ -0,0 +1,118 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of the fixed thread pool and the virtual thread sending mode against a slow collector,
+ * which takes {@link #LATENCY_MS} to respond to each request. Each datapoint is sent as a single request, so the
+ * throughput is bound by the number of concurrent sends. Run manually on a JVM supporting virtual threads.
+ */
+@Ignore("Benchmark, run manually")
+public class TimeSeriesClientBenchmark {
+
+    private static final int LATENCY_MS = 50;
+
+    private static final int DATAPOINTS = 2000;
+
+    private HttpServer collector;
+
+    private ExecutorService collectorThreads;
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private String batchSize;
+
+    @Before
+    public void setUp() throws Exception {
+
+        batchSize = System.setProperty("timeseries.batch.size", "1");
+        collector = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        collectorThreads = Executors.newCachedThreadPool();
+        collector.setExecutor(collectorThreads);
+        collector.createContext("/store/bench", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) {
+                    //consume the request
+                }
+                TimeUnit.MILLISECONDS.sleep(LATENCY_MS);
+                received.incrementAndGet();
+                exchange.sendResponseHeaders(204, -1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                exchange.close();
+            }
+        });
+        collector.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        collector.stop(0);
+        collectorThreads.shutdown();
+        if (batchSize == null) {
+            System.clearProperty("timeseries.batch.size");
+        } else {
+            System.setProperty("timeseries.batch.size", batchSize);
+        }
+    }
+
+    @Test
+    public void fixedThreadPool() throws Exception {
+
+        for (int threads : new int[] { 4, 16, 64 }) {
+            final ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                run("fixed pool, " + threads + " threads", client(pool));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void virtualThreads() throws Exception {
+
+        assumeTrue(TimeSeriesClient.isVirtualThreadSupported());
+        for (int connections : new int[] { 4, 16, 64, 256 }) {
+            run("virtual threads, " + connections + " connections",
+                client(TimeSeriesClient.virtualThreadExecutor(connections).get()));
+        }
+    }
+
+    private TimeSeriesClient client(Executor executor) {
+        return TimeSeriesClient.forTarget("localhost", collector.getAddress().getPort(), "/store/bench", executor);
+    }
+
+    private void run(String mode, TimeSeriesClient client) {
+
+        received.set(0);
+        final long start = System.nanoTime();
+        for (int i = 0; i < DATAPOINTS; i++) {
+            client.store(new Datapoint("bench").addValue("value", i));
+        }
+        client.flush().join();
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("%-40s %6d datapoints in %6d ms, %8.1f datapoints/s%n",
+                          mode,
+                          received.get(),
+                          elapsedMs,
+                          received.get() * 1000.0 / Math.max(1, elapsedMs));
+    }
+}
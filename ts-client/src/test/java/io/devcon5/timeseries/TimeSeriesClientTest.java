@@ -1,7 +1,17 @@
 package io.devcon5.timeseries;
 
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
@@ -67,6 +77,204 @@ public class TimeSeriesClientTest {
 
     }
 
+    @Test
+    public void storeAll(TestContext context) throws Exception {
+
+        final Async async = context.async(3);
+        this.testRecorder = new TestRecorderVerticle("/store/test", async);
+        rule.vertx().deployVerticle(this.testRecorder, context.asyncAssertSuccess());
+
+        TimeSeriesClient client = TimeSeriesClient.forTarget("localhost", defaultPort, "/store/test", Runnable::run);
+        CompletableFuture<Void> result = client.storeAll(Arrays.asList(new Datapoint().addValue("test", 123),
+                                                                       new Datapoint().addValue("test", 147),
+                                                                       new Datapoint().addValue("test", 165)));
+
+        async.awaitSuccess(2000);
+        context.assertTrue(result.isDone());
+        context.assertFalse(result.isCompletedExceptionally());
+
+        List<JsonObject> dps = this.testRecorder.getMessages();
+        context.assertEquals(3, dps.size());
+        assertMeasure(context, dps.get(0), 123L);
+        assertMeasure(context, dps.get(1), 147L);
+        assertMeasure(context, dps.get(2), 165L);
+    }
+
+    @Test
+    public void storeAll_binary(TestContext context) throws Exception {
+
+        final Async async = context.async(3);
+        this.testRecorder = new TestRecorderVerticle("/store/test", async);
+        rule.vertx().deployVerticle(this.testRecorder, context.asyncAssertSuccess());
+
+        final String protocol = System.setProperty("timeseries.protocol", "binary");
+        final TimeSeriesClient client;
+        try {
+            client = TimeSeriesClient.forTarget("localhost", defaultPort, "/store/test", Runnable::run);
+        } finally {
+            if (protocol == null) {
+                System.clearProperty("timeseries.protocol");
+            } else {
+                System.setProperty("timeseries.protocol", protocol);
+            }
+        }
+        CompletableFuture<Void> result = client.storeAll(Arrays.asList(new Datapoint().addValue("test", 123),
+                                                                       new Datapoint().addValue("test", 147),
+                                                                       new Datapoint().addValue("test", 165)));
+
+        async.awaitSuccess(2000);
+        context.assertFalse(result.isCompletedExceptionally());
+
+        List<JsonObject> dps = this.testRecorder.getMessages();
+        context.assertEquals(3, dps.size());
+        assertMeasure(context, dps.get(0), 123L);
+        assertMeasure(context, dps.get(1), 147L);
+        assertMeasure(context, dps.get(2), 165L);
+    }
+
+    @Test
+    public void storeAll_jsonArray(TestContext context) throws Exception {
+
+        final Async async = context.async(3);
+        this.testRecorder = new TestRecorderVerticle("/store/test", async);
+        rule.vertx().deployVerticle(this.testRecorder, context.asyncAssertSuccess());
+
+        final String array = System.setProperty("timeseries.batch.array", "true");
+        final TimeSeriesClient client;
+        try {
+            client = TimeSeriesClient.forTarget("localhost", defaultPort, "/store/test", Runnable::run);
+        } finally {
+            if (array == null) {
+                System.clearProperty("timeseries.batch.array");
+            } else {
+                System.setProperty("timeseries.batch.array", array);
+            }
+        }
+        CompletableFuture<Void> result = client.storeAll(Arrays.asList(new Datapoint().addValue("test", 123),
+                                                                       new Datapoint().addValue("test", 147),
+                                                                       new Datapoint().addValue("test", 165)));
+
+        async.awaitSuccess(2000);
+        context.assertFalse(result.isCompletedExceptionally());
+
+        List<JsonObject> dps = this.testRecorder.getMessages();
+        context.assertEquals(3, dps.size());
+        assertMeasure(context, dps.get(0), 123L);
+        assertMeasure(context, dps.get(1), 147L);
+        assertMeasure(context, dps.get(2), 165L);
+    }
+
+    @Test
+    public void storeAsync_flush(TestContext context) throws Exception {
+
+        final Async async = context.async(100);
+        this.testRecorder = new TestRecorderVerticle("/store/test", async);
+        rule.vertx().deployVerticle(this.testRecorder, context.asyncAssertSuccess());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TimeSeriesClient client = TimeSeriesClient.forTarget("localhost", defaultPort, "/store/test", executor);
+            CompletableFuture<Void> last = null;
+            for (int i = 0; i < 100; i++) {
+                last = client.storeAsync(new Datapoint().addValue("test", i));
+            }
+
+            client.flush().get(2, TimeUnit.SECONDS);
+
+            context.assertTrue(last.isDone());
+            context.assertFalse(last.isCompletedExceptionally());
+            async.awaitSuccess(2000);
+            context.assertEquals(100, this.testRecorder.getMessages().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void storeAsync_virtualThreads(TestContext context) throws Exception {
+
+        assumeTrue(TimeSeriesClient.isVirtualThreadSupported());
+        final Async async = context.async(10);
+        this.testRecorder = new TestRecorderVerticle("/store/test", async);
+        rule.vertx().deployVerticle(this.testRecorder, context.asyncAssertSuccess());
+
+        TimeSeriesClient client = TimeSeriesClient.forTarget("localhost",
+                                                             defaultPort,
+                                                             "/store/test",
+                                                             TimeSeriesClient.virtualThreadExecutor(4).get());
+        for (int i = 0; i < 10; i++) {
+            client.storeAsync(new Datapoint().addValue("test", i));
+        }
+
+        client.flush().get(2, TimeUnit.SECONDS);
+        async.awaitSuccess(2000);
+        context.assertEquals(10, this.testRecorder.getMessages().size());
+    }
+
+    @Test
+    public void storeAsync_collectorUnavailable_completedExceptionally(TestContext context) throws Exception {
+
+        final int closedPort;
+        try (ServerSocket s = new ServerSocket(0)) {
+            closedPort = s.getLocalPort();
+        }
+
+        TimeSeriesClient client = TimeSeriesClient.forTarget("localhost", closedPort, "/store/test", Runnable::run);
+        CompletableFuture<Void> result = client.storeAsync(new Datapoint().addValue("test", 123));
+
+        context.assertTrue(result.isCompletedExceptionally());
+        try {
+            result.get();
+            context.fail("exception expected");
+        } catch (ExecutionException e) {
+            context.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void storeAsync_nonFiniteValue_onlyCallerFails(TestContext context) throws Exception {
+
+        final Async async = context.async(1);
+        this.testRecorder = new TestRecorderVerticle("/store/test", async);
+        rule.vertx().deployVerticle(this.testRecorder, context.asyncAssertSuccess());
+
+        TimeSeriesClient client = TimeSeriesClient.forTarget("localhost", defaultPort, "/store/test", Runnable::run);
+        CompletableFuture<Void> invalid = client.storeAsync(new Datapoint().addValue("test", Double.NaN));
+        CompletableFuture<Void> valid = client.storeAsync(new Datapoint().addValue("test", 123));
+
+        async.awaitSuccess(2000);
+        context.assertTrue(invalid.isCompletedExceptionally());
+        context.assertFalse(valid.isCompletedExceptionally());
+        context.assertEquals(1, this.testRecorder.getMessages().size());
+        assertMeasure(context, this.testRecorder.getMessages().get(0), 123L);
+    }
+
+    @Test
+    public void storeAsync_sameBatch_cancelDoesNotAffectOtherCallers(TestContext context) throws Exception {
+
+        final List<Runnable> commands = new ArrayList<>();
+        final String protocol = System.setProperty("timeseries.protocol", "binary");
+        final TimeSeriesClient client;
+        try {
+            client = TimeSeriesClient.forTarget("localhost", defaultPort, "/store/test", commands::add);
+        } finally {
+            if (protocol == null) {
+                System.clearProperty("timeseries.protocol");
+            } else {
+                System.setProperty("timeseries.protocol", protocol);
+            }
+        }
+        CompletableFuture<Void> first = client.storeAsync(new Datapoint().addValue("test", 123));
+        CompletableFuture<Void> second = client.storeAsync(new Datapoint().addValue("test", 147));
+        first.cancel(false);
+        commands.forEach(Runnable::run);
+
+        context.assertEquals(1, commands.size());
+        context.assertTrue(first.isCancelled());
+        second.get(2, TimeUnit.SECONDS);
+        context.assertFalse(second.isCompletedExceptionally());
+    }
+
     private void assertMeasure(TestContext context, JsonObject measure, Long value) {
 
         context.assertEquals("measure", measure.getString("name"));
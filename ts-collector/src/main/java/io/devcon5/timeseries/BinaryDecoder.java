@@ -0,0 +1,223 @@
+package io.devcon5.timeseries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoder for the compact binary format sent by the TimeSeriesClient with content type {@value #CONTENT_TYPE}.
+ * <pre>
+ *     body      := 'T' 'S' version(1) datapoint*
+ *     datapoint := varint(zigzag(timestamp - previous timestamp)) string(name)
+ *                  varint(#tags) (string(key) string(value))*
+ *                  varint(#values) (string(field) type value)*
+ *     type      := 0 (value is a 8 byte IEEE 754 double, big endian) | 1 (value is a varint(zigzag(long)))
+ *     string    := varint(0) varint(#bytes) utf-8 bytes | varint(index + 1)
+ * </pre>
+ * The datapoints are decoded directly into a {@link ColumnarBatch}. The series of a datapoint is looked up in the
+ * {@link SeriesDictionary} only once per combination of name and tags in a body, as the strings of the body are
+ * referred to by their index. Long values are converted to double, as all values of a batch are. Each datapoint must
+ * have at least one value and double values must be finite, as a datapoint without values or with NaN, which marks
+ * a missing value in the batch, can not be written in line protocol.
+ */
+final class BinaryDecoder {
+
+    /**
+     * The content type of the binary format
+     */
+    static final String CONTENT_TYPE = "application/x-timeseries";
+
+    private static final int VERSION = 1;
+
+    private static final int DOUBLE = 0;
+
+    private static final int LONG = 1;
+
+    private final byte[] data;
+
+    private final List<String> strings = new ArrayList<>();
+
+    private final Map<String, Integer> seriesIds = new HashMap<>();
+
+    private final StringBuilder seriesRefs = new StringBuilder();
+
+    private int pos;
+
+    private BinaryDecoder(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Decodes a request body into a batch of the shared dictionary.
+     * @param data
+     *  the body in binary format
+     * @return
+     *  the batch containing all datapoints of the body
+     * @throws IllegalArgumentException
+     *  if the body is not in binary format, is truncated or contains a datapoint without valid values
+     */
+    static ColumnarBatch decode(byte[] data) {
+        return decode(data, SeriesDictionary.shared());
+    }
+
+    /**
+     * Decodes a request body into a batch.
+     * @param data
+     *  the body in binary format
+     * @param dictionary
+     *  the dictionary of the series of the batch
+     * @return
+     *  the batch containing all datapoints of the body
+     * @throws IllegalArgumentException
+     *  if the body is not in binary format, is truncated or contains a datapoint without valid values
+     */
+    static ColumnarBatch decode(byte[] data, SeriesDictionary dictionary) {
+        return new BinaryDecoder(data).decode(dictionary);
+    }
+
+    private ColumnarBatch decode(SeriesDictionary dictionary) {
+
+        if (data.length < 3 || data[0] != 'T' || data[1] != 'S') {
+            throw new IllegalArgumentException("Not a timeseries body");
+        }
+        if (data[2] != VERSION) {
+            throw new IllegalArgumentException("Unsupported version " + data[2]);
+        }
+        pos = 3;
+        //estimate the number of datapoints, a datapoint with a single value takes about 16 bytes
+        final ColumnarBatch.Builder batch = new ColumnarBatch.Builder(dictionary, data.length / 16);
+        long timestamp = 0;
+        while (pos < data.length) {
+            timestamp += unzigzag(readVarLong());
+            batch.addRow(readSeries(dictionary), timestamp);
+            final int values = readCount();
+            if (values == 0) {
+                throw new IllegalArgumentException("Datapoint without values at " + pos);
+            }
+            for (int i = 0; i < values; i++) {
+                final String field = readString();
+                final int type = readByte();
+                if (type == DOUBLE) {
+                    final double value = readDouble();
+                    if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        throw new IllegalArgumentException("Invalid value " + value + " at " + (pos - 8));
+                    }
+                    batch.setValue(field, value);
+                } else if (type == LONG) {
+                    batch.setValue(field, unzigzag(readVarLong()));
+                } else {
+                    throw new IllegalArgumentException("Unknown value type " + type + " at " + (pos - 1));
+                }
+            }
+        }
+        return batch.build();
+    }
+
+    /**
+     * Reads the name and tags of a datapoint and resolves the id of the series. The ids are cached by the string
+     * indices of the name and tags, so the series only has to be looked up in the dictionary when the combination
+     * occurs for the first time in the body.
+     */
+    private int readSeries(SeriesDictionary dictionary) {
+
+        seriesRefs.setLength(0);
+        final int name = readStringRef();
+        seriesRefs.append((char) name).append((char) (name >>> 16));
+        final int tags = readCount();
+        final int[] refs = new int[tags * 2];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = readStringRef();
+            seriesRefs.append((char) refs[i]).append((char) (refs[i] >>> 16));
+        }
+        final String key = seriesRefs.toString();
+        final Integer id = seriesIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        final Map<String, String> tagMap = new HashMap<>();
+        for (int i = 0; i < refs.length; i += 2) {
+            tagMap.put(strings.get(refs[i]), strings.get(refs[i + 1]));
+        }
+        final int seriesId = dictionary.idOf(strings.get(name), tagMap);
+        seriesIds.put(key, seriesId);
+        return seriesId;
+    }
+
+    private String readString() {
+        return strings.get(readStringRef());
+    }
+
+    /**
+     * Reads a string reference, adding the string to the strings of the body if it is defined at this position
+     * @return
+     *  the index of the string
+     */
+    private int readStringRef() {
+
+        final long ref = readVarLong();
+        if (ref > 0) {
+            if (ref > strings.size()) {
+                throw new IllegalArgumentException("Undefined string " + ref + " at " + pos);
+            }
+            return (int) ref - 1;
+        }
+        final int length = readCount();
+        if (length > data.length - pos) {
+            throw new IllegalArgumentException("Truncated string at " + pos);
+        }
+        strings.add(new String(data, pos, length, StandardCharsets.UTF_8));
+        pos += length;
+        return strings.size() - 1;
+    }
+
+    /**
+     * Reads the number of following elements, which can not exceed the remaining bytes
+     */
+    private int readCount() {
+
+        final long count = readVarLong();
+        if (count < 0 || count > data.length - pos) {
+            throw new IllegalArgumentException("Invalid count " + count + " at " + pos);
+        }
+        return (int) count;
+    }
+
+    private double readDouble() {
+
+        if (pos + 8 > data.length) {
+            throw new IllegalArgumentException("Truncated value at " + pos);
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (data[pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private long readVarLong() {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint at " + pos);
+    }
+
+    private int readByte() {
+
+        if (pos >= data.length) {
+            throw new IllegalArgumentException("Truncated body at " + pos);
+        }
+        return data[pos++] & 0xFF;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
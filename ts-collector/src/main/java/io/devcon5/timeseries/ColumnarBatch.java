@@ -0,0 +1,423 @@
+package io.devcon5.timeseries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Batch of datapoints in a columnar layout, used to pass datapoints between the verticles of the collector without
+ * creating an object per datapoint. The batch consists of
+ * <ul>
+ *     <li>a column of timestamps</li>
+ *     <li>a column of series ids, each referring to the measurement name and tags in the {@link SeriesDictionary}</li>
+ *     <li>a column of double values per field name. If a datapoint has no value for a field, the value is NaN</li>
+ * </ul>
+ * A batch is immutable once it is built, so a single instance can be published to multiple consumers. Only numeric
+ * field values can be represented, datapoints with other values have to be sent as json datapoints.
+ * <br>
+ * The batch is sent over the event bus using the {@link #CODEC}, which has to be registered using
+ * {@link #registerCodec(EventBus)} by every verticle that sends batches.
+ */
+final class ColumnarBatch {
+
+    /**
+     * Codec to send batches over the event bus. Locally, the batch instance is passed as is, over the wire it is
+     * sent as json array of datapoints.
+     */
+    static final MessageCodec<ColumnarBatch, ColumnarBatch> CODEC = new Codec();
+
+    private final SeriesDictionary dictionary;
+
+    private final int size;
+
+    private final long[] timestamps;
+
+    private final int[] series;
+
+    private final String[] fields;
+
+    private final double[][] columns;
+
+    private ColumnarBatch(SeriesDictionary dictionary,
+                          int size,
+                          long[] timestamps,
+                          int[] series,
+                          String[] fields,
+                          double[][] columns) {
+        this.dictionary = dictionary;
+        this.size = size;
+        this.timestamps = timestamps;
+        this.series = series;
+        this.fields = fields;
+        this.columns = columns;
+    }
+
+    /**
+     * Registers the codec for batches as default codec of the event bus. Registering the codec more than once is
+     * ignored.
+     * @param eventBus
+     *  the event bus to register the codec with
+     */
+    static void registerCodec(EventBus eventBus) {
+        try {
+            eventBus.registerDefaultCodec(ColumnarBatch.class, CODEC);
+        } catch (IllegalStateException e) {
+            //already registered by another verticle
+        }
+    }
+
+    /**
+     * Creates a builder for a new batch that uses the current generation of the shared series dictionary.
+     * @param capacity
+     *  the expected number of datapoints
+     * @return
+     *  a new builder
+     */
+    static Builder builder(int capacity) {
+        return new Builder(SeriesDictionary.shared(), capacity);
+    }
+
+    /**
+     * Creates a builder for a new batch that uses the series dictionary of this batch, so the datapoints of this
+     * batch can be added without resolving their series again.
+     * @param capacity
+     *  the expected number of datapoints
+     * @return
+     *  a new builder
+     */
+    Builder derive(int capacity) {
+        return new Builder(dictionary, capacity);
+    }
+
+    /**
+     * The number of datapoints in this batch
+     */
+    int size() {
+        return size;
+    }
+
+    long getTimestamp(int row) {
+        return timestamps[row];
+    }
+
+    int getSeriesId(int row) {
+        return series[row];
+    }
+
+    /**
+     * Resolves the series of a datapoint
+     * @param row
+     *  the index of the datapoint
+     * @return
+     *  the series of the datapoint
+     */
+    SeriesDictionary.Series getSeries(int row) {
+        return dictionary.get(series[row]);
+    }
+
+    /**
+     * The number of field columns of this batch
+     */
+    int getFieldCount() {
+        return fields.length;
+    }
+
+    String getFieldName(int field) {
+        return fields[field];
+    }
+
+    /**
+     * The value of a field of a datapoint
+     * @param field
+     *  the index of the field column
+     * @param row
+     *  the index of the datapoint
+     * @return
+     *  the value or NaN if the datapoint has no value for the field
+     */
+    double getValue(int field, int row) {
+        return columns[field][row];
+    }
+
+    /**
+     * Creates a batch containing only the selected datapoints of this batch. The field columns are kept, even if
+     * none of the selected datapoints has a value for a field.
+     * @param rows
+     *  the indices of the datapoints to keep
+     * @return
+     *  this batch if all datapoints are selected, otherwise a new batch with the selected datapoints
+     */
+    ColumnarBatch select(BitSet rows) {
+
+        final int selected = rows.cardinality();
+        if (selected == size) {
+            return this;
+        }
+        final long[] selectedTimestamps = new long[selected];
+        final int[] selectedSeries = new int[selected];
+        final double[][] selectedColumns = new double[fields.length][selected];
+        for (int row = rows.nextSetBit(0), i = 0; row >= 0 && row < size; row = rows.nextSetBit(row + 1), i++) {
+            selectedTimestamps[i] = timestamps[row];
+            selectedSeries[i] = series[row];
+            for (int f = 0; f < fields.length; f++) {
+                selectedColumns[f][i] = columns[f][row];
+            }
+        }
+        return new ColumnarBatch(dictionary, selected, selectedTimestamps, selectedSeries, fields, selectedColumns);
+    }
+
+    /**
+     * Converts a single datapoint of this batch into a json datapoint with the properties name, tags, values and
+     * timestamp.
+     * @param row
+     *  the index of the datapoint
+     * @return
+     *  the json datapoint
+     */
+    JsonObject toJson(int row) {
+
+        final SeriesDictionary.Series s = getSeries(row);
+        final JsonObject tags = new JsonObject();
+        s.getTags().forEach(tags::put);
+        final JsonObject values = new JsonObject();
+        for (int f = 0; f < fields.length; f++) {
+            if (!Double.isNaN(columns[f][row])) {
+                values.put(fields[f], columns[f][row]);
+            }
+        }
+        return new JsonObject().put("name", s.getName())
+                               .put("tags", tags)
+                               .put("values", values)
+                               .put("timestamp", timestamps[row]);
+    }
+
+    /**
+     * Converts all datapoints of this batch into json datapoints
+     * @return
+     *  a json array of all datapoints
+     */
+    JsonArray toJsonArray() {
+
+        final JsonArray array = new JsonArray();
+        for (int row = 0; row < size; row++) {
+            array.add(toJson(row));
+        }
+        return array;
+    }
+
+    /**
+     * Builder to collect datapoints into a batch. Field columns are added as new field names occur.
+     */
+    static final class Builder {
+
+        private final SeriesDictionary dictionary;
+
+        private final List<String> fields = new ArrayList<>();
+
+        private final Map<String, Integer> fieldIndex = new HashMap<>();
+
+        private final List<double[]> columns = new ArrayList<>();
+
+        private long[] timestamps;
+
+        private int[] series;
+
+        private int size;
+
+        Builder(SeriesDictionary dictionary, int capacity) {
+            this.dictionary = dictionary;
+            this.timestamps = new long[Math.max(1, capacity)];
+            this.series = new int[timestamps.length];
+        }
+
+        /**
+         * Adds a json datapoint to the batch.
+         * @param datapoint
+         *  the datapoint with the properties name, tags, values and timestamp
+         * @return
+         *  true if the datapoint was added, false if it can not be represented in a batch, because it has no
+         *  timestamp, no values or non-numeric values
+         */
+        boolean add(JsonObject datapoint) {
+
+            final Object timestamp = datapoint.getValue("timestamp");
+            final Object values = datapoint.getValue("values");
+            if (!(timestamp instanceof Number)
+                    || !(datapoint.getValue("name") instanceof String)
+                    || !(values instanceof JsonObject)
+                    || ((JsonObject) values).isEmpty()) {
+                return false;
+            }
+            for (Map.Entry<String, Object> value : (JsonObject) values) {
+                if (!(value.getValue() instanceof Number)) {
+                    return false;
+                }
+            }
+            addRow(dictionary.idOf(datapoint), ((Number) timestamp).longValue());
+            for (Map.Entry<String, Object> value : (JsonObject) values) {
+                setValue(value.getKey(), ((Number) value.getValue()).doubleValue());
+            }
+            return true;
+        }
+
+        /**
+         * Adds a datapoint of another batch to this batch.
+         * @param batch
+         *  the batch containing the datapoint
+         * @param row
+         *  the index of the datapoint in the batch
+         * @return
+         *  this builder
+         */
+        Builder add(ColumnarBatch batch, int row) {
+
+            final SeriesDictionary.Series s = batch.getSeries(row);
+            addRow(batch.dictionary == dictionary ? s.getId() : dictionary.idOf(s.getName(), s.getTags()),
+                   batch.getTimestamp(row));
+            for (int f = 0; f < batch.getFieldCount(); f++) {
+                final double value = batch.getValue(f, row);
+                if (!Double.isNaN(value)) {
+                    setValue(batch.getFieldName(f), value);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds a datapoint without values to the batch. The values have to be set using
+         * {@link #setValue(String, double)}.
+         * @param seriesId
+         *  the id of the series of the datapoint in the dictionary of this builder
+         * @param timestamp
+         *  the timestamp of the datapoint
+         * @return
+         *  this builder
+         */
+        Builder addRow(int seriesId, long timestamp) {
+
+            if (size == timestamps.length) {
+                grow();
+            }
+            timestamps[size] = timestamp;
+            series[size] = seriesId;
+            size++;
+            return this;
+        }
+
+        /**
+         * Sets the value of a field of the datapoint last added.
+         * @param field
+         *  the name of the field
+         * @param value
+         *  the value of the field
+         * @return
+         *  this builder
+         */
+        Builder setValue(String field, double value) {
+
+            Integer index = fieldIndex.get(field);
+            if (index == null) {
+                index = fields.size();
+                fieldIndex.put(field, index);
+                fields.add(field);
+                final double[] column = new double[timestamps.length];
+                Arrays.fill(column, Double.NaN);
+                columns.add(column);
+            }
+            columns.get(index)[size - 1] = value;
+            return this;
+        }
+
+        /**
+         * The number of datapoints added so far
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * The dictionary the series ids of this builder refer to
+         */
+        SeriesDictionary getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * Creates the batch of all datapoints added to this builder. The builder must not be used afterwards.
+         * @return
+         *  a new batch
+         */
+        ColumnarBatch build() {
+
+            final double[][] values = new double[columns.size()][];
+            for (int f = 0; f < values.length; f++) {
+                values[f] = Arrays.copyOf(columns.get(f), size);
+            }
+            return new ColumnarBatch(dictionary,
+                                     size,
+                                     Arrays.copyOf(timestamps, size),
+                                     Arrays.copyOf(series, size),
+                                     fields.toArray(new String[fields.size()]),
+                                     values);
+        }
+
+        private void grow() {
+
+            final int capacity = timestamps.length * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            series = Arrays.copyOf(series, capacity);
+            for (int f = 0; f < columns.size(); f++) {
+                final double[] column = Arrays.copyOf(columns.get(f), capacity);
+                Arrays.fill(column, size, capacity, Double.NaN);
+                columns.set(f, column);
+            }
+        }
+    }
+
+    private static final class Codec implements MessageCodec<ColumnarBatch, ColumnarBatch> {
+
+        @Override
+        public void encodeToWire(Buffer buffer, ColumnarBatch batch) {
+
+            final byte[] json = batch.toJsonArray().encode().getBytes(StandardCharsets.UTF_8);
+            buffer.appendInt(json.length).appendBytes(json);
+        }
+
+        @Override
+        public ColumnarBatch decodeFromWire(int pos, Buffer buffer) {
+
+            final int length = buffer.getInt(pos);
+            final JsonArray datapoints = new JsonArray(buffer.getString(pos + 4, pos + 4 + length));
+            final Builder builder = builder(datapoints.size());
+            for (int i = 0; i < datapoints.size(); i++) {
+                builder.add(datapoints.getJsonObject(i));
+            }
+            return builder.build();
+        }
+
+        @Override
+        public ColumnarBatch transform(ColumnarBatch batch) {
+            return batch;
+        }
+
+        @Override
+        public String name() {
+            return "columnarBatch";
+        }
+
+        @Override
+        public byte systemCodecID() {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.devcon5.timeseries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring that assigns keys to a set of members. Each member is placed onto the ring several times
+ * (virtual nodes) so that the keys are evenly distributed. A key is owned by the first member found clockwise from
+ * the key's position on the ring, further members in that order are used as replicas or fallbacks.
+ * Adding or removing a member only remaps the keys of the ring segments the member takes over or gives away, which
+ * is about 1/n of all keys.
+ * The walk starting at each virtual node is computed when the ring changes, so looking up a key neither allocates nor
+ * walks the ring. The ring is not threadsafe, it should be populated once before it is used.
+ *
+ * @param <T>
+ *  the type of the members. The string representation of a member is used to determine its positions on the ring
+ *  and therefore must be unique and stable.
+ */
+public class ConsistentHashRing<T> {
+
+    private final int virtualNodes;
+
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+
+    private final List<T> members = new ArrayList<>();
+
+    /**
+     * The positions of the virtual nodes in ascending order
+     */
+    private long[] positions = new long[0];
+
+    /**
+     * The walk starting at the virtual node of the same index in positions. Equal walks share one list.
+     */
+    private final List<List<T>> walks = new ArrayList<>();
+
+    /**
+     * Creates a new, empty ring.
+     * @param virtualNodes
+     *  the number of positions each member gets on the ring. More positions give a more even distribution of the
+     *  keys at the expense of a larger ring.
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("At least one virtual node is required");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a member to the ring.
+     * @param member
+     *  the member to add
+     * @return
+     *  this ring for fluent api
+     */
+    public ConsistentHashRing<T> add(T member) {
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(member + "#" + i), member);
+        }
+        members.add(member);
+        computeWalks();
+        return this;
+    }
+
+    /**
+     * Removes a member from the ring. The keys of the member are taken over by the next members on the ring.
+     * @param member
+     *  the member to remove
+     * @return
+     *  this ring for fluent api
+     */
+    public ConsistentHashRing<T> remove(T member) {
+        ring.values().removeIf(member::equals);
+        members.remove(member);
+        computeWalks();
+        return this;
+    }
+
+    /**
+     * The members of this ring in the order they were added.
+     * @return
+     *  an unmodifiable list of all members
+     */
+    public List<T> members() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * The number of distinct members on this ring
+     * @return
+     *  the number of members
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Determines the member owning the specified key.
+     * @param key
+     *  the key to look up
+     * @return
+     *  the owning member or null if the ring is empty
+     */
+    public T get(String key) {
+        final List<T> walk = walk(hash(key));
+        return walk.isEmpty() ? null : walk.get(0);
+    }
+
+    /**
+     * Walks the ring clockwise starting at the position of the key and collects each member once, in the order
+     * they are encountered. The first element is the owner of the key, the following elements are the preferred
+     * replicas and fallbacks for that key.
+     * @param key
+     *  the key to look up
+     * @return
+     *  all members of the ring, ordered by their preference for the given key. The list is unmodifiable and shared
+     *  by all keys of the same ring segment.
+     */
+    public List<T> walk(String key) {
+        return walk(hash(key));
+    }
+
+    /**
+     * Walks the ring clockwise starting at the given position, see {@link #walk(String)}. Use this method if the
+     * hash of the key is already known, i.e. from {@link SeriesDictionary.Series#getHash()}.
+     * @param position
+     *  the position on the ring, the {@link #hash(String)} of the key
+     * @return
+     *  all members of the ring, ordered by their preference for the given position. The list is unmodifiable and
+     *  shared by all positions of the same ring segment.
+     */
+    public List<T> walk(long position) {
+        if (positions.length == 0) {
+            return Collections.emptyList();
+        }
+        int node = Arrays.binarySearch(positions, position);
+        if (node < 0) {
+            node = -node - 1;
+        }
+        return walks.get(node == positions.length ? 0 : node);
+    }
+
+    /**
+     * Computes the walk starting at each virtual node, collecting each member once in the order they are encountered
+     */
+    private void computeWalks() {
+
+        final List<T> nodes = new ArrayList<>(ring.values());
+        final Map<List<T>, List<T>> distinct = new HashMap<>();
+        positions = new long[nodes.size()];
+        walks.clear();
+        int node = 0;
+        for (Long position : ring.keySet()) {
+            final Set<T> walk = new LinkedHashSet<>(members.size() * 2);
+            for (int i = 0; i < nodes.size() && walk.size() < members.size(); i++) {
+                walk.add(nodes.get((node + i) % nodes.size()));
+            }
+            positions[node++] = position;
+            walks.add(distinct.computeIfAbsent(new ArrayList<>(walk), Collections::unmodifiableList));
+        }
+    }
+
+    /**
+     * Calculates the position of a key on the ring using the 64 bit FNV-1a hash of the key's UTF-8 bytes with
+     * an additional avalanche step, so that similar keys are spread over the entire ring.
+     * @param key
+     *  the key to hash
+     * @return
+     *  the position on the ring
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,264 @@
+package io.devcon5.timeseries;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Time-windowed filter of duplicate datapoints with a fixed memory footprint. Each datapoint is identified by a 64 bit
+ * hash of its series key, timestamp and values. The filter keeps the 32 bit fingerprints of the seen datapoints in a
+ * ring of 'generations' open addressing hash tables of primitive ints. New fingerprints are added to the current
+ * table. When the current table has covered its share of the window or is half full, the oldest table is cleared and
+ * becomes the current one, so a datapoint is remembered for at least window * (generations - 1) / generations, or
+ * less if the rate exceeds the capacity of the tables.
+ * <br>
+ * As only fingerprints are compared, a new datapoint may be mistaken for a duplicate if its fingerprint collides with
+ * a stored fingerprint on its probe sequence. With linear probing at load factor a, a lookup compares on average
+ * ((1 + 1 / (1 - a)^2) / 2 - 1) stored fingerprints per table, each colliding with a probability of 2^-32. The sum over
+ * all tables is reported as the false positive rate. The filter is not thread-safe.
+ */
+final class DedupFilter {
+
+    private static final double MAX_LOAD = 0.5;
+
+    private final int[][] tables;
+
+    private final int[] sizes;
+
+    private final int mask;
+
+    private final long rotationInterval;
+
+    private int current;
+
+    private long currentSince;
+
+    private long stored;
+
+    private long checked;
+
+    private long duplicates;
+
+    private long rotations;
+
+    private long forcedRotations;
+
+    private double expectedFalsePositives;
+
+    /**
+     * Creates a new filter
+     * @param capacity
+     *  the number of slots per table, rounded up to the next power of two
+     * @param generations
+     *  the number of tables, at least 2
+     * @param window
+     *  the time in ms the datapoints should be remembered
+     * @param now
+     *  the current time in ms
+     */
+    DedupFilter(int capacity, int generations, long window, long now) {
+
+        if (generations < 2) {
+            throw new IllegalArgumentException("At least 2 generations required");
+        }
+        final int slots = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.tables = new int[generations][slots];
+        this.sizes = new int[generations];
+        this.mask = slots - 1;
+        this.rotationInterval = Math.max(1, window / generations);
+        this.currentSince = now;
+    }
+
+    /**
+     * Calculates the hash of a json datapoint with the properties name, tags, values and timestamp.
+     * @param datapoint
+     *  the datapoint
+     * @return
+     *  the 64 bit hash of the datapoint
+     */
+    static long hash(JsonObject datapoint) {
+
+        long content = 0;
+        final JsonObject values = datapoint.getJsonObject("values");
+        if (values != null) {
+            for (Map.Entry<String, Object> value : values) {
+                final Object v = value.getValue();
+                content += field(value.getKey(), v instanceof Number
+                                                 ? Double.doubleToLongBits(((Number) v).doubleValue())
+                                                 : String.valueOf(v).hashCode());
+            }
+        }
+        final Long timestamp = datapoint.getLong("timestamp");
+        return hash(ConsistentHashRing.hash(SeriesKey.of(datapoint)), timestamp == null ? 0 : timestamp, content);
+    }
+
+    /**
+     * Calculates the hash of a datapoint of a columnar batch. The hash is the same as for the json representation of
+     * the datapoint, as long as the json values are numbers.
+     * @param batch
+     *  the batch containing the datapoint
+     * @param row
+     *  the index of the datapoint
+     * @return
+     *  the 64 bit hash of the datapoint
+     */
+    static long hash(ColumnarBatch batch, int row) {
+
+        long content = 0;
+        for (int f = 0; f < batch.getFieldCount(); f++) {
+            final double value = batch.getValue(f, row);
+            if (!Double.isNaN(value)) {
+                content += field(batch.getFieldName(f), Double.doubleToLongBits(value));
+            }
+        }
+        return hash(batch.getSeries(row).getHash(), batch.getTimestamp(row), content);
+    }
+
+    /**
+     * Hash of a single field. The field hashes are summed up, so the hash of the values doesn't depend on the order
+     * of the fields.
+     */
+    private static long field(String name, long value) {
+        return mix(name.hashCode() * 0x9e3779b97f4a7c15L + value);
+    }
+
+    private static long hash(long series, long timestamp, long content) {
+        return mix(series ^ mix(timestamp + 0x632be59bd9b4e019L) ^ mix(content));
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Checks whether a datapoint has been seen within the window and remembers it otherwise.
+     * @param hash
+     *  the hash of the datapoint
+     * @param now
+     *  the current time in ms
+     * @return
+     *  true if the datapoint is considered a duplicate
+     */
+    boolean isDuplicate(long hash, long now) {
+
+        //after a pause, rotate once for each elapsed interval, but not more often than there are tables
+        final long elapsed = Math.min((now - currentSince) / rotationInterval, tables.length);
+        for (long i = 0; i < elapsed; i++) {
+            rotate(now);
+        }
+        checked++;
+        if ((checked & 0x3ff) == 0) {
+            //the rate changes slowly, so it is sampled for every 1024th check only
+            expectedFalsePositives += getFalsePositiveRate() * 1024;
+        }
+        final int fingerprint = (int) (hash >>> 32) == 0 ? 1 : (int) (hash >>> 32);
+        final int start = (int) hash & mask;
+        for (int t = 0; t < tables.length; t++) {
+            if (contains(tables[t], start, fingerprint)) {
+                duplicates++;
+                return true;
+            }
+        }
+        if (sizes[current] >= tables[current].length * MAX_LOAD) {
+            forcedRotations++;
+            rotate(now);
+        }
+        insert(tables[current], start, fingerprint);
+        sizes[current]++;
+        stored++;
+        return false;
+    }
+
+    private boolean contains(int[] table, int start, int fingerprint) {
+
+        for (int i = start; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insert(int[] table, int start, int fingerprint) {
+
+        int i = start;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+    }
+
+    private void rotate(long now) {
+
+        current = (current + 1) % tables.length;
+        Arrays.fill(tables[current], 0);
+        stored -= sizes[current];
+        sizes[current] = 0;
+        currentSince = now;
+        rotations++;
+    }
+
+    /**
+     * The probability that a new datapoint is considered a duplicate, because its fingerprint collides with a stored
+     * fingerprint
+     * @return
+     *  the expected number of compared fingerprints divided by 2^32
+     */
+    double getFalsePositiveRate() {
+
+        double compared = 0;
+        for (int t = 0; t < tables.length; t++) {
+            final double free = 1.0 - (double) sizes[t] / tables[t].length;
+            compared += (1.0 + 1.0 / (free * free)) / 2.0 - 1.0;
+        }
+        return compared / 4294967296.0;
+    }
+
+    /**
+     * The number of datapoints that are expected to have been dropped due to fingerprint collisions, which is the sum
+     * of the false positive rate at each check.
+     */
+    double getExpectedFalsePositives() {
+        return expectedFalsePositives;
+    }
+
+    long getChecked() {
+        return checked;
+    }
+
+    long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * The number of fingerprints currently stored
+     */
+    long getStored() {
+        return stored;
+    }
+
+    long getRotations() {
+        return rotations;
+    }
+
+    /**
+     * The number of rotations because a table was half full before it covered its share of the window. If this is
+     * not zero, the window is shorter than configured and the capacity should be increased.
+     */
+    long getForcedRotations() {
+        return forcedRotations;
+    }
+
+    /**
+     * The memory used by the tables in bytes
+     */
+    long getMemory() {
+        return (long) tables.length * tables[0].length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,128 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.BitSet;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+
+/**
+ * Verticle that drops duplicate datapoints, i.e. datapoints that are sent again by clients retrying after a timeout,
+ * before they are forwarded to the output address.
+ * <pre>
+ *     {
+ *      "address" : "/dedup/test",
+ *      "output" : "/store/test",
+ *      "window" : 300000,
+ *      "generations" : 4,
+ *      "capacity" : 4194304,
+ *      "reportInterval" : 60000
+ *     }
+ * </pre>
+ * A datapoint is a duplicate if a datapoint of the same series with the same timestamp and values has been received
+ * within the 'window' ms. The seen datapoints are kept in a {@link DedupFilter} of 'generations' tables with
+ * 'capacity' slots each, so the memory used is fixed at generations * capacity * 4 bytes, i.e. 64 MB with the above
+ * settings, which is sufficient for about 8 million datapoints per window. The verticle accepts json datapoints, json
+ * arrays of datapoints as well as {@link ColumnarBatch}es. A batch or array is forwarded as is if it contains no
+ * duplicates. Messages sent with a reply address, i.e. by the {@link FanOutVerticle}, are acknowledged once the
+ * unique datapoints have been forwarded.
+ * <br>
+ * The number of received and dropped datapoints, the false positive rate and the expected number of datapoints
+ * dropped due to false positives are logged every 'reportInterval' ms and can be requested via the
+ * '/stats{address}' address, i.e. using http GET /stats/dedup/test.
+ */
+public class DedupVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = getLogger(DedupVerticle.class);
+
+    private DedupFilter filter;
+
+    private String address;
+
+    private String output;
+
+    @Override
+    public void start() throws Exception {
+
+        final JsonObject config = config();
+        this.address = config.getString("address");
+        this.output = config.getString("output");
+        if (address == null || output == null) {
+            throw new IllegalArgumentException("Deduplication requires an address and an output address");
+        }
+        this.filter = new DedupFilter(config.getInteger("capacity", 4 * 1024 * 1024),
+                                      config.getInteger("generations", 4),
+                                      config.getLong("window", 300000L),
+                                      System.currentTimeMillis());
+        ColumnarBatch.registerCodec(vertx.eventBus());
+
+        vertx.eventBus().<Object>consumer(address, msg -> {
+            process(msg.body());
+            if (msg.replyAddress() != null) {
+                msg.reply(new JsonObject());
+            }
+        });
+        vertx.eventBus().<JsonObject>consumer("/stats" + address, msg -> msg.reply(stats()));
+        vertx.setPeriodic(config.getLong("reportInterval", 60000L), id -> LOG.info("{}", stats().encode()));
+        LOG.info("Dropping duplicates of {}, forwarding to {}, using {} bytes", address, output, filter.getMemory());
+    }
+
+    /**
+     * Forwards the datapoints of a message that have not been seen before to the output address.
+     * @param body
+     *  a json datapoint, a json array of datapoints or a columnar batch
+     */
+    void process(Object body) {
+
+        final long now = System.currentTimeMillis();
+        if (body instanceof ColumnarBatch) {
+            final ColumnarBatch batch = (ColumnarBatch) body;
+            final BitSet unique = new BitSet(batch.size());
+            for (int row = 0; row < batch.size(); row++) {
+                if (!filter.isDuplicate(DedupFilter.hash(batch, row), now)) {
+                    unique.set(row);
+                }
+            }
+            if (!unique.isEmpty()) {
+                vertx.eventBus().publish(output, batch.select(unique));
+            }
+        } else if (body instanceof JsonArray) {
+            final JsonArray datapoints = (JsonArray) body;
+            final JsonArray unique = new JsonArray();
+            for (int i = 0; i < datapoints.size(); i++) {
+                final JsonObject datapoint = datapoints.getJsonObject(i);
+                if (!filter.isDuplicate(DedupFilter.hash(datapoint), now)) {
+                    unique.add(datapoint);
+                }
+            }
+            if (unique.size() == datapoints.size()) {
+                vertx.eventBus().publish(output, datapoints);
+            } else if (!unique.isEmpty()) {
+                vertx.eventBus().publish(output, unique);
+            }
+        } else if (!filter.isDuplicate(DedupFilter.hash((JsonObject) body), now)) {
+            vertx.eventBus().publish(output, body);
+        }
+    }
+
+    /**
+     * Creates the statistics of this deduplication
+     * @return
+     *  the number of received and dropped datapoints and the false positive estimates
+     */
+    JsonObject stats() {
+
+        return new JsonObject().put("address", address)
+                               .put("received", filter.getChecked())
+                               .put("dropped", filter.getDuplicates())
+                               .put("stored", filter.getStored())
+                               .put("falsePositiveRate", filter.getFalsePositiveRate())
+                               .put("expectedFalsePositives", filter.getExpectedFalsePositives())
+                               .put("rotations", filter.getRotations())
+                               .put("forcedRotations", filter.getForcedRotations())
+                               .put("memory", filter.getMemory());
+    }
+}
@@ -0,0 +1,271 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+
+/**
+ * Verticle that distributes the datapoints received on its address to multiple sinks, each with its own bounded
+ * queue, batching and overflow policy, so that a slow or failing sink does not delay the other sinks or let the
+ * backlog grow inside the event bus.
+ * <pre>
+ *     {
+ *      "address" : "/store/test",
+ *      "reportInterval" : 60000,
+ *      "sinks" : [
+ *          { "name" : "influx", "address" : "/influx/write?db=test" },
+ *          {
+ *              "name" : "archive",
+ *              "address" : "/archive/test",
+ *              "queueSize" : 100000,
+ *              "overflow" : "dropOldest",
+ *              "maxRowLimit" : 1000,
+ *              "maxDelay" : 100,
+ *              "maxInFlight" : 1,
+ *              "ackTimeout" : 30000
+ *          }
+ *      ]
+ *     }
+ * </pre>
+ * Each received json datapoint, json array of datapoints or {@link ColumnarBatch} is added to the queue of every sink. The queue holds up to
+ * 'queueSize' datapoints, when it is full, either the new datapoints ('dropNewest') or the oldest datapoints
+ * ('dropOldest') are dropped. The queued datapoints are sent to the sink address as a columnar batch of up to
+ * 'maxRowLimit' datapoints, or earlier if the oldest datapoint has been waiting 'maxDelay' ms. Datapoints that can not
+ * be represented in a columnar batch are sent as json array. The batches are sent, not published, and each sink may
+ * have 'maxInFlight' unacknowledged batches. The {@link InfluxVerticle} acknowledges a batch once it has been
+ * written, the {@link FileSinkVerticle} once it is queued for writing. Sinks that don't reply, such as the
+ * {@link TransformVerticle}, have to be configured with "ack" : false, in which case the batches are sent without
+ * waiting for a reply.
+ * <br>
+ * The queue size, lag (age of the oldest queued datapoint), number of sent, dropped and failed datapoints and the
+ * acknowledge latency of each sink are logged every 'reportInterval' ms and can be requested via the
+ * '/stats{address}' address, i.e. using http GET /stats/store/test.
+ */
+public class FanOutVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = getLogger(FanOutVerticle.class);
+
+    private final List<Sink> sinks = new ArrayList<>();
+
+    private String address;
+
+    @Override
+    public void start() throws Exception {
+
+        final JsonObject config = config();
+        this.address = config.getString("address");
+        final JsonArray sinkConfigs = config.getJsonArray("sinks", new JsonArray());
+        if (address == null || sinkConfigs.isEmpty()) {
+            throw new IllegalArgumentException("Fan-out requires an address and at least one sink");
+        }
+        for (int i = 0; i < sinkConfigs.size(); i++) {
+            sinks.add(new Sink(sinkConfigs.getJsonObject(i)));
+        }
+        ColumnarBatch.registerCodec(vertx.eventBus());
+
+        vertx.eventBus().<Object>consumer(address, msg -> receive(msg.body()));
+        final long tick = sinks.stream().mapToLong(sink -> sink.maxDelay).min().orElse(100L);
+        vertx.setPeriodic(Math.max(1, tick), id -> sinks.forEach(Sink::flush));
+        vertx.eventBus().<JsonObject>consumer("/stats" + address, msg -> msg.reply(stats()));
+        vertx.setPeriodic(config.getLong("reportInterval", 60000L), id -> LOG.info("{}", stats().encode()));
+        LOG.info("Distributing {} to {} sinks", address, sinks.size());
+    }
+
+    /**
+     * Adds the datapoints of a message to the queues of all sinks.
+     * @param body
+     *  a json datapoint, a json array of datapoints or a columnar batch
+     */
+    void receive(Object body) {
+
+        final int points;
+        if (body instanceof ColumnarBatch) {
+            points = ((ColumnarBatch) body).size();
+        } else if (body instanceof JsonArray) {
+            points = ((JsonArray) body).size();
+        } else if (body instanceof JsonObject) {
+            points = 1;
+        } else {
+            LOG.warn("Dropping message of unsupported type {}", body == null ? null : body.getClass().getName());
+            return;
+        }
+        if (points == 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (Sink sink : sinks) {
+            sink.offer(body, points, now);
+        }
+    }
+
+    /**
+     * Creates the statistics of all sinks
+     * @return
+     *  a json object with the statistics of each sink, by the name of the sink
+     */
+    JsonObject stats() {
+
+        final long now = System.currentTimeMillis();
+        final JsonObject stats = new JsonObject();
+        sinks.forEach(sink -> stats.put(sink.name, sink.stats(now)));
+        return new JsonObject().put("address", address).put("sinks", stats);
+    }
+
+    /**
+     * A single sink with its queue and delivery state. All methods are called on the event loop of the verticle.
+     */
+    private final class Sink {
+
+        private final String name;
+
+        private final String target;
+
+        private final SinkQueue queue;
+
+        private final int maxRowLimit;
+
+        private final long maxDelay;
+
+        private final int maxInFlight;
+
+        private final boolean ack;
+
+        private final DeliveryOptions options;
+
+        private int inFlight;
+
+        private long sent;
+
+        private long failed;
+
+        private long acks;
+
+        private long ackNanos;
+
+        Sink(JsonObject config) {
+            this.target = config.getString("address");
+            if (target == null) {
+                throw new IllegalArgumentException("No address defined for sink " + config.encode());
+            }
+            this.name = config.getString("name", target);
+            this.queue = new SinkQueue(config.getLong("queueSize", 100000L),
+                                       SinkQueue.Overflow.of(config.getString("overflow", "dropOldest")));
+            this.maxRowLimit = config.getInteger("maxRowLimit", 1000);
+            this.maxDelay = config.getLong("maxDelay", 100L);
+            this.maxInFlight = config.getInteger("maxInFlight", 1);
+            this.ack = config.getBoolean("ack", true);
+            this.options = new DeliveryOptions().setSendTimeout(config.getLong("ackTimeout", 30000L));
+        }
+
+        void offer(Object body, int points, long now) {
+
+            queue.offer(body, points, now);
+            if (queue.size() >= maxRowLimit) {
+                flush();
+            }
+        }
+
+        /**
+         * Sends batches to the sink as long as the sink accepts more batches and either a full batch is queued or
+         * the oldest datapoint has waited long enough.
+         */
+        void flush() {
+
+            final long now = System.currentTimeMillis();
+            while ((!ack || inFlight < maxInFlight)
+                    && !queue.isEmpty()
+                    && (queue.size() >= maxRowLimit || queue.lag(now) >= maxDelay)) {
+                deliver(queue.poll(maxRowLimit));
+            }
+        }
+
+        private void deliver(List<Object> chunks) {
+
+            if (chunks.size() == 1 && chunks.get(0) instanceof ColumnarBatch) {
+                final ColumnarBatch batch = (ColumnarBatch) chunks.get(0);
+                send(batch, batch.size());
+                return;
+            }
+            final ColumnarBatch.Builder builder = ColumnarBatch.builder(maxRowLimit);
+            final JsonArray json = new JsonArray();
+            for (Object chunk : chunks) {
+                if (chunk instanceof ColumnarBatch) {
+                    final ColumnarBatch batch = (ColumnarBatch) chunk;
+                    for (int row = 0; row < batch.size(); row++) {
+                        builder.add(batch, row);
+                    }
+                } else if (chunk instanceof JsonArray) {
+                    for (Object datapoint : (JsonArray) chunk) {
+                        add(builder, json, datapoint);
+                    }
+                } else {
+                    add(builder, json, chunk);
+                }
+            }
+            if (builder.size() > 0) {
+                send(builder.build(), builder.size());
+            }
+            if (!json.isEmpty()) {
+                send(json, json.size());
+            }
+        }
+
+        /**
+         * Adds a json datapoint to the batch, or to the json array if it can not be represented in a batch. Array
+         * elements that are not json datapoints are dropped and counted as failed.
+         */
+        private void add(ColumnarBatch.Builder builder, JsonArray json, Object datapoint) {
+
+            if (!(datapoint instanceof JsonObject)) {
+                failed++;
+                LOG.warn("Sink '{}' dropped invalid datapoint {}", name, datapoint);
+            } else if (!builder.add((JsonObject) datapoint)) {
+                json.add((JsonObject) datapoint);
+            }
+        }
+
+        private void send(Object batch, int points) {
+
+            if (!ack) {
+                vertx.eventBus().send(target, batch);
+                sent += points;
+                return;
+            }
+            inFlight++;
+            final long start = System.nanoTime();
+            vertx.eventBus().send(target, batch, options, reply -> {
+                inFlight--;
+                if (reply.succeeded()) {
+                    sent += points;
+                    acks++;
+                    ackNanos += System.nanoTime() - start;
+                } else {
+                    failed += points;
+                    LOG.warn("Sink '{}' failed to accept {} datapoints: {}", name, points, reply.cause().getMessage());
+                }
+                flush();
+            });
+        }
+
+        JsonObject stats(long now) {
+
+            return new JsonObject().put("address", target)
+                                   .put("queued", queue.size())
+                                   .put("lag", queue.lag(now))
+                                   .put("inFlight", inFlight)
+                                   .put("received", queue.getReceived())
+                                   .put("sent", sent)
+                                   .put("dropped", queue.getDropped())
+                                   .put("failed", failed)
+                                   .put("ackMillis", acks == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(ackNanos / acks));
+        }
+    }
+}
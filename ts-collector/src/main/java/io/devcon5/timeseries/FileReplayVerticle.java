@@ -0,0 +1,206 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+
+/**
+ * Verticle to replay the segment files written by the {@link FileSinkVerticle}. The datapoints of the files are
+ * published to the '/store/{dbname}' address, so they are processed as if they would have been received via http.
+ * <pre>
+ *     {
+ *      "path" : "archive/test",
+ *      "db" : "test",
+ *      "pointsPerSecond" : 10000,
+ *      "maxSegmentAge" : 3600000
+ *     }
+ * </pre>
+ * The path may point to a single segment or a directory, in which case all segments in the directory are replayed
+ * in the order they have been written. The newest segment of a directory is skipped while it may still be written
+ * by a {@link FileSinkVerticle}, that is if it has been created less than 'maxSegmentAge' ms ago (default 3600000,
+ * as for the sink). The format of each segment is determined by its file extension. The replay rate is limited to
+ * 'pointsPerSecond' (default 10000) to not overload the downstream verticles, as published datapoints are not
+ * acknowledged. A rate of 0 disables the limit. The files are read on a worker thread.
+ * <br>
+ * A segment that ends with a truncated gzip stream or an incomplete line, i.e. after a crash of the sink, is replayed
+ * up to the last complete datapoint.
+ */
+public class FileReplayVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = getLogger(FileReplayVerticle.class);
+
+    /**
+     * Matches the creation time in the name of a segment written by the {@link SegmentWriter}
+     */
+    private static final Pattern CREATED = Pattern.compile(".*-(\\d+)-\\d+\\.[^-]+$");
+
+    @Override
+    public void start() throws Exception {
+
+        final JsonObject config = config();
+        final Path path = Paths.get(config.getString("path", "archive"));
+        final String address = "/store/" + config.getString("db");
+        final long pointsPerSecond = config.getLong("pointsPerSecond", 10000L);
+        final long maxSegmentAge = config.getLong("maxSegmentAge", 3600000L);
+
+        vertx.<Long>executeBlocking(future -> {
+            try {
+                long count = 0;
+                for (Path segment : segments(path, maxSegmentAge)) {
+                    count += replay(segment, address, pointsPerSecond);
+                }
+                future.complete(count);
+            } catch (IOException e) {
+                future.fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.fail(e);
+            }
+        }, false, result -> {
+            if (result.succeeded()) {
+                LOG.info("Replayed {} datapoints from {} to {}", result.result(), path, address);
+            } else {
+                LOG.error("Replay of {} failed", path, result.cause());
+            }
+        });
+    }
+
+    /**
+     * Lists the segments to replay in the order they have been written.
+     * @param path
+     *  a single segment or a directory of segments
+     * @param maxSegmentAge
+     *  the time in ms after which the sink rolls a segment
+     * @return
+     *  the segments to replay, without the newest segment of a directory if it may still be written to
+     * @throws IOException
+     *  if the directory could not be listed
+     */
+    static List<Path> segments(Path path, long maxSegmentAge) throws IOException {
+
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(path);
+        }
+        final List<Path> segments;
+        try (Stream<Path> files = Files.list(path)) {
+            segments = files.filter(f -> parserFor(f) != null).sorted().collect(Collectors.toList());
+        }
+        if (!segments.isEmpty() && isActive(segments.get(segments.size() - 1), maxSegmentAge)) {
+            LOG.info("Skipping active segment {}", segments.remove(segments.size() - 1));
+        }
+        return segments;
+    }
+
+    private static boolean isActive(Path segment, long maxSegmentAge) {
+
+        final Matcher name = CREATED.matcher(segment.getFileName().toString());
+        return name.matches() && System.currentTimeMillis() - Long.parseLong(name.group(1)) < maxSegmentAge;
+    }
+
+    private long replay(Path segment, String address, long pointsPerSecond) throws IOException, InterruptedException {
+
+        LOG.debug("Replaying {}", segment);
+        final Function<String, JsonObject> parser = parserFor(segment);
+        if (parser == null) {
+            throw new IOException("Unknown segment format " + segment);
+        }
+        final long start = System.nanoTime();
+        long count = 0;
+        try (BufferedReader reader = open(segment)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final JsonObject datapoint;
+                try {
+                    datapoint = parser.apply(line);
+                } catch (RuntimeException e) {
+                    LOG.warn("Skipping invalid datapoint in {}: {}", segment, e.getMessage());
+                    continue;
+                }
+                vertx.eventBus().publish(address, datapoint);
+                count++;
+                if (pointsPerSecond > 0 && count % 1000 == 0) {
+                    final long ahead = TimeUnit.SECONDS.toNanos(count) / pointsPerSecond - (System.nanoTime() - start);
+                    if (ahead > 0) {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static BufferedReader open(Path segment) throws IOException {
+
+        InputStream in = Files.newInputStream(segment);
+        if (segment.toString().endsWith(".gz")) {
+            in = new TruncatedGzipInputStream(new GZIPInputStream(in, 64 * 1024), segment);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1024 * 1024);
+    }
+
+    private static Function<String, JsonObject> parserFor(Path segment) {
+
+        final String name = segment.getFileName().toString().replaceAll("\\.gz$", "");
+        if (name.endsWith(".ndjson")) {
+            return JsonObject::new;
+        } else if (name.endsWith(".lp")) {
+            return LineProtocol::parse;
+        }
+        return null;
+    }
+
+    /**
+     * Ends the stream at the truncated tail of a gzip segment, so that all datapoints up to the truncation are
+     * replayed.
+     */
+    private static final class TruncatedGzipInputStream extends FilterInputStream {
+
+        private final Path segment;
+
+        private TruncatedGzipInputStream(InputStream in, Path segment) {
+            super(in);
+            this.segment = segment;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (EOFException e) {
+                LOG.warn("Segment {} is truncated, replaying it up to the truncation", segment);
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.rxjava.core.AbstractVerticle;
+import io.vertx.rxjava.core.eventbus.Message;
+import org.slf4j.Logger;
+
+/**
+ * The file sink Verticle archives all datapoints sent to the '/store/{dbname}' addresses of the configured databases
+ * to local disk, either as Influx line protocol or as newline delimited JSON. It can be deployed instead of or
+ * in addition to the {@link InfluxVerticle}. The address prefix can be changed with 'addressPrefix', i.e. to
+ * '/archive/' when the sink is fed by a {@link FanOutVerticle}.
+ * <pre>
+ *     {
+ *      "dbnames" : [ "test" ],
+ *      "directory" : "archive",
+ *      "format" : "line",
+ *      "compression" : "gzip",
+ *      "maxSegmentSize" : 268435456,
+ *      "maxSegmentAge" : 3600000,
+ *      "bufferSize" : 4194304,
+ *      "queueSize" : 1024,
+ *      "fsync" : true,
+ *      "maxRowLimit" : 1000,
+ *      "maxDelay" : 1000,
+ *      "stopTimeout" : 10000
+ *     }
+ * </pre>
+ * The datapoints are buffered and encoded into batches of 'maxRowLimit' datapoints on the event loop, buffered
+ * datapoints are written at the latest every 'maxDelay' ms and when the verticle is stopped. A {@link ColumnarBatch}
+ * or json array of datapoints is encoded as it is received. The batches are written to disk by a dedicated writer thread
+ * per database, so the event loop never blocks on disk IO.
+ * Each database is written to the segment files in its own sub-directory, see {@link SegmentWriter}.
+ * The archived segments can be loaded again using the {@link FileReplayVerticle}.
+ */
+public class FileSinkVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = getLogger(FileSinkVerticle.class);
+
+    private final Map<String, SegmentWriter> writers = new HashMap<>();
+
+    private final Map<String, List<JsonObject>> pending = new HashMap<>();
+
+    private Function<JsonObject, String> encoder;
+
+    private String extension;
+
+    @Override
+    public void start() throws Exception {
+
+        final JsonObject config = config();
+        if ("ndjson".equals(config.getString("format", "line"))) {
+            this.encoder = JsonObject::encode;
+            this.extension = "ndjson";
+        } else {
+            this.encoder = LineProtocol::format;
+            this.extension = "lp";
+        }
+        if (config.containsKey("dbnames")) {
+            for (Object dbname : config.getJsonArray("dbnames")) {
+                registerConsumer((String) dbname, createWriter((String) dbname, config));
+            }
+            vertx.setPeriodic(config.getLong("maxDelay", 1000L), id -> flushPending());
+            LOG.info("File sink verticle started, writing to {}", config.getString("directory", "archive"));
+        } else {
+            LOG.warn("No database name configured");
+        }
+    }
+
+    /**
+     * Closes the writers without blocking the event loop, after the buffered datapoints have been queued for
+     * writing. The verticle is stopped once all queued datapoints have been written, or after 'stopTimeout' ms
+     * (default 10000) at the latest.
+     */
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+
+        flushPending();
+        final List<CompletableFuture<Void>> closed = new ArrayList<>();
+        writers.forEach((dbname, writer) -> closed.add(writer.closeAsync().thenRun(() -> {
+            LOG.info("Closed file sink for db '{}', {} bytes written, {} batches dropped",
+                     dbname,
+                     writer.getBytesWritten(),
+                     writer.getDroppedChunks());
+        })));
+        final long timer = vertx.setTimer(config().getLong("stopTimeout", 10000L), id -> {
+            LOG.warn("File sink writers did not finish in time, queued datapoints may be lost");
+            if (!stopFuture.isComplete()) {
+                stopFuture.complete();
+            }
+        });
+        CompletableFuture.allOf(closed.toArray(new CompletableFuture<?>[0])).thenRun(() -> context.runOnContext(v -> {
+            vertx.cancelTimer(timer);
+            if (!stopFuture.isComplete()) {
+                stopFuture.complete();
+            }
+        }));
+    }
+
+    private SegmentWriter createWriter(String dbname, JsonObject config) throws Exception {
+
+        final SegmentWriter writer = new SegmentWriter(Paths.get(config.getString("directory", "archive"), dbname),
+                                                       dbname,
+                                                       extension,
+                                                       config.getLong("maxSegmentSize", 256L * 1024 * 1024),
+                                                       config.getLong("maxSegmentAge", 3600000L),
+                                                       config.getInteger("bufferSize", 4 * 1024 * 1024),
+                                                       config.getInteger("queueSize", 1024),
+                                                       "gzip".equals(config.getString("compression")),
+                                                       config.getBoolean("fsync", true));
+        writers.put(dbname, writer);
+        pending.put(dbname, new ArrayList<>());
+        return writer;
+    }
+
+    /**
+     * Queues the buffered json datapoints of all databases for writing
+     */
+    private void flushPending() {
+
+        pending.forEach((dbname, dps) -> {
+            if (!dps.isEmpty()) {
+                append(dbname, writers.get(dbname), encode(dps));
+                dps.clear();
+            }
+        });
+    }
+
+    private void registerConsumer(final String dbname, final SegmentWriter writer) {
+
+        LOG.debug("Registering file sink for {} database", dbname);
+        final int maxRowLimit = config().getInteger("maxRowLimit", 1000);
+        final List<JsonObject> buffered = pending.get(dbname);
+        vertx.eventBus().<Object>consumer(config().getString("addressPrefix", "/store/") + dbname, msg -> {
+            if (msg.body() instanceof ColumnarBatch) {
+                acknowledge(msg, writer, append(dbname, writer, encode((ColumnarBatch) msg.body())));
+                return;
+            }
+            if (msg.body() instanceof JsonArray) {
+                acknowledge(msg, writer, append(dbname, writer, encode(datapoints((JsonArray) msg.body()))));
+                return;
+            }
+            buffered.add((JsonObject) msg.body());
+            if (buffered.size() >= maxRowLimit) {
+                append(dbname, writer, encode(buffered));
+                buffered.clear();
+            }
+        });
+    }
+
+    private static boolean append(String dbname, SegmentWriter writer, byte[] chunk) {
+
+        if (!writer.append(chunk)) {
+            if (writer.getFailure() != null) {
+                LOG.warn("Writing db '{}' failed, dropped batch: {}", dbname, writer.getFailure().getMessage());
+            } else {
+                LOG.warn("Write queue for db '{}' is full, dropped batch", dbname);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replies to a message that was sent, not published, once its datapoints have been queued for writing, or
+     * fails it if the write queue is full or writing to disk failed.
+     */
+    private static void acknowledge(Message<Object> msg, SegmentWriter writer, boolean queued) {
+
+        if (msg.replyAddress() == null) {
+            return;
+        }
+        if (queued) {
+            msg.reply(new JsonObject());
+        } else if (writer.getFailure() != null) {
+            msg.fail(503, "Write failed: " + writer.getFailure().getMessage());
+        } else {
+            msg.fail(503, "Write queue full");
+        }
+    }
+
+    private static List<JsonObject> datapoints(JsonArray array) {
+
+        final List<JsonObject> dps = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            dps.add(array.getJsonObject(i));
+        }
+        return dps;
+    }
+
+    /**
+     * Encodes the datapoints into the configured format, each datapoint followed by a newline.
+     * @param dps
+     *  the datapoints to encode
+     * @return
+     *  the UTF-8 bytes of the encoded datapoints
+     */
+    private byte[] encode(List<JsonObject> dps) {
+
+        final StringBuilder buf = new StringBuilder(dps.size() * 128);
+        for (JsonObject dp : dps) {
+            buf.append(encoder.apply(dp)).append('\n');
+        }
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a columnar batch into the configured format. Line protocol is written directly from the columns,
+     * for json each datapoint is converted into a json object.
+     * @param batch
+     *  the datapoints to encode
+     * @return
+     *  the UTF-8 bytes of the encoded datapoints
+     */
+    private byte[] encode(ColumnarBatch batch) {
+
+        final StringBuilder buf = new StringBuilder(batch.size() * 128);
+        if ("lp".equals(extension)) {
+            LineProtocol.format(batch, buf);
+        } else {
+            for (int row = 0; row < batch.size(); row++) {
+                buf.append(batch.toJson(row).encode()).append('\n');
+            }
+        }
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -2,40 +2,90 @@ package io.devcon5.timeseries;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.slf4j.Logger;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 
 /**
  * Verticle to accept measurement data via http. Incoming data is forwarded directly onto the event bus to the
- * consumers listenting at the same path address as specified in the URL.
+ * consumers listenting at the same path address as specified in the URL. The request body is either a single JSON
+ * datapoint or a JSON array of datapoints, each of which is forwarded as separate message.
+ * Requests with content type 'application/x-timeseries' contain datapoints in the compact binary format of the
+ * TimeSeriesClient, see {@link BinaryDecoder}. These are always published as a single {@link ColumnarBatch}.
+ * <br>
+ * GET requests are sent as request to the consumer listening at the path address, with the query parameters as json
+ * object. The json reply of the consumer is returned as response, i.e. GET /latest is answered by the
+ * {@link LastValueVerticle}. If the consumer fails the request with a http status code, that code is returned.
+ * <br>
+ * With the 'batchFormat' set to 'columnar', the datapoints of a request are published as a single
+ * {@link ColumnarBatch} instead of separate json datapoints. Datapoints that can not be represented in a batch,
+ * i.e. with non-numeric values, are still published as json datapoints.
+ * <br>
+ * The ingest rate can be limited per database and per client (remote host) by the optional 'limits' configuration,
+ * see {@link IngestLimiter}. Requests exceeding the limits are answered with 429 (Too Many Requests), or, if
+ * sampled down, with 202 (Accepted) when the datapoint was dropped. The limits can be read and replaced at runtime
+ * using GET and PUT on '/admin/limits'.
+ * <br>
+ * With the optional 'overload' configuration, the server watches the event loop lag, the pending writes to the store
+ * and the heap usage and sheds load by sampling the datapoints of low priority measurements when the collector is
+ * overloaded, see {@link OverloadController}. If all datapoints of a request are dropped, the request is answered with
+ * 202 (Accepted). The current shedding level and the number of sampled and dropped datapoints per priority class can
+ * be read using GET on '/admin/overload'.
  */
 public class HttpServerVerticle extends AbstractVerticle {
 
     private static final Logger LOG = getLogger(HttpServerVerticle.class);
 
+    private IngestLimiter limiter;
+
+    private boolean columnar;
+
+    private OverloadController overload;
+
     @Override
     public void start(Future<Void> startFuture) throws Exception {
 
+        this.limiter = new IngestLimiter(config().getJsonObject("limits", new JsonObject()));
+        this.columnar = "columnar".equals(config().getString("batchFormat", "json"));
+        ColumnarBatch.registerCodec(vertx.eventBus());
+
         final Router router = Router.router(vertx);
         router.route().handler(BodyHandler.create());
         router.route("/").handler(this::ping);
+        router.get("/admin/limits").handler(ctx -> respond(ctx, limiter.stats()));
+        router.put("/admin/limits").handler(this::configureLimits);
+        final JsonObject overloadConfig = config().getJsonObject("overload");
+        if (overloadConfig != null) {
+            this.overload = new OverloadController(overloadConfig);
+            monitorLoad(overloadConfig.getLong("checkInterval", 100L));
+            router.get("/admin/overload").handler(ctx -> respond(ctx, overload.stats()));
+        }
+
+        //send queries to the event bus and respond with the reply
+        router.get("/*").handler(this::query);
 
         //route all other messages to the event bus
-        //TODO support other dataformats than just JSON
-        router.post("/*")
-              .handler(ctx -> {
-                  LOG.debug("> POST {}\n{}", ctx.normalisedPath(), ctx.getBodyAsJson());
-                  vertx.eventBus()
-                          .<Buffer>publish(ctx.normalisedPath(), ctx.getBodyAsJson());
-                  ctx.response().setStatusCode(204).end();
-              });
+        router.post("/*").consumes(BinaryDecoder.CONTENT_TYPE).handler(this::ingestBinary);
+        router.post("/*").handler(this::ingest);
 
         vertx.createHttpServer()
              .requestHandler(router::accept)
@@ -58,6 +108,233 @@ public class HttpServerVerticle extends AbstractVerticle {
 
     /////////////// Helper methods
 
+    private void ingest(RoutingContext ctx) {
+
+        final String path = ctx.normalisedPath();
+        final List<JsonObject> datapoints;
+        try {
+            datapoints = datapoints(ctx.getBody());
+        } catch (DecodeException | ClassCastException e) {
+            ctx.response().setStatusCode(400).end("Invalid datapoints: " + e.getMessage());
+            return;
+        }
+        if (!admit(ctx, path, datapoints.size())) {
+            return;
+        }
+        final List<JsonObject> accepted = overload == null ? datapoints : overload.apply(datapoints);
+        if (accepted.isEmpty()) {
+            ctx.response().setStatusCode(202).end();
+            return;
+        }
+        LOG.debug("> POST {}\n{}", path, accepted);
+        publish(path, accepted);
+        ctx.response().setStatusCode(204).end();
+    }
+
+    private void ingestBinary(RoutingContext ctx) {
+
+        final String path = ctx.normalisedPath();
+        final ColumnarBatch batch;
+        try {
+            batch = BinaryDecoder.decode(ctx.getBody().getBytes());
+        } catch (IllegalArgumentException e) {
+            ctx.response().setStatusCode(400).end("Invalid datapoints: " + e.getMessage());
+            return;
+        }
+        if (!admit(ctx, path, batch.size())) {
+            return;
+        }
+        final ColumnarBatch accepted = overload == null ? batch : overload.apply(batch);
+        if (accepted.size() == 0) {
+            ctx.response().setStatusCode(202).end();
+            return;
+        }
+        LOG.debug("> POST {} {} datapoints", path, accepted.size());
+        vertx.eventBus().publish(path, accepted);
+        ctx.response().setStatusCode(204).end();
+    }
+
+    /**
+     * Checks the ingest limits for a request and responds to the request if it is not admitted.
+     * @param ctx
+     *  the context of the request
+     * @param path
+     *  the path the datapoints are sent to
+     * @param datapoints
+     *  the number of datapoints in the request
+     * @return
+     *  true if the datapoints of the request should be published
+     */
+    private boolean admit(RoutingContext ctx, String path, int datapoints) {
+
+        final String client = ctx.request().remoteAddress().host();
+        switch (limiter.tryAcquire(database(path), client, datapoints, ctx.getBody().length())) {
+            case REJECT:
+                ctx.response().setStatusCode(429).putHeader("Retry-After", "1").end();
+                return false;
+            case DROP:
+                ctx.response().setStatusCode(202).end();
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Updates the overload controller periodically. The event loop lag is measured as the delay of the periodic timer
+     * beyond its interval. The heap usage is the usage of the tenured pool after its last collection, so garbage that
+     * has not been collected yet does not count as load.
+     * @param interval
+     *  the interval in ms between two checks
+     */
+    private void monitorLoad(long interval) {
+
+        final MemoryPoolMXBean tenured = tenuredPool();
+        if (tenured == null) {
+            LOG.warn("No tenured memory pool found, heap usage is not monitored");
+        }
+        final long[] last = { System.nanoTime() };
+        vertx.setPeriodic(interval, id -> {
+            final long now = System.nanoTime();
+            final long lag = Math.max(0, (now - last[0]) / 1000000 - interval);
+            last[0] = now;
+            final double heap = tenured == null ? 0 : usedAfterCollection(tenured);
+            if (overload.update(lag, PendingWrites.shared().get(), heap)) {
+                LOG.warn("Overload level changed to {}: {}", overload.getLevel(), overload.stats().encode());
+            }
+        });
+    }
+
+    /**
+     * Finds the heap pool holding the long living objects, i.e. the old generation. It is the only heap pool that
+     * supports both a usage and a collection usage threshold, for all collectors of the HotSpot JVM.
+     * @return
+     *  the tenured pool or null if there is none
+     */
+    private static MemoryPoolMXBean tenuredPool() {
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP
+                    && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The used fraction of a memory pool after its last collection
+     * @param pool
+     *  the memory pool
+     * @return
+     *  the used fraction of the pool's maximum size, 0 if the pool has not been collected yet
+     */
+    private static double usedAfterCollection(MemoryPoolMXBean pool) {
+
+        final MemoryUsage usage = pool.getCollectionUsage();
+        if (usage == null) {
+            return 0;
+        }
+        final long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        return (double) usage.getUsed() / max;
+    }
+
+    private void publish(String path, List<JsonObject> datapoints) {
+
+        if (!columnar) {
+            datapoints.forEach(dp -> vertx.eventBus().publish(path, dp));
+            return;
+        }
+        final ColumnarBatch.Builder batch = ColumnarBatch.builder(datapoints.size());
+        for (JsonObject dp : datapoints) {
+            if (!batch.add(dp)) {
+                vertx.eventBus().publish(path, dp);
+            }
+        }
+        if (batch.size() > 0) {
+            vertx.eventBus().publish(path, batch.build());
+        }
+    }
+
+    /**
+     * Parses the body of a request into datapoints.
+     * @param body
+     *  the body containing a single json datapoint or a json array of datapoints
+     * @return
+     *  the list of datapoints
+     */
+    private static List<JsonObject> datapoints(Buffer body) {
+
+        for (int i = 0; i < body.length(); i++) {
+            final byte b = body.getByte(i);
+            if (b == '[') {
+                final JsonArray array = body.toJsonArray();
+                final List<JsonObject> datapoints = new ArrayList<>(array.size());
+                for (int j = 0; j < array.size(); j++) {
+                    datapoints.add(array.getJsonObject(j));
+                }
+                return datapoints;
+            } else if (!Character.isWhitespace(b)) {
+                break;
+            }
+        }
+        return Collections.singletonList(body.toJsonObject());
+    }
+
+    private void configureLimits(RoutingContext ctx) {
+
+        try {
+            limiter.configure(ctx.getBodyAsJson());
+            LOG.info("Ingest limits changed to {}", ctx.getBodyAsString());
+            respond(ctx, limiter.stats());
+        } catch (RuntimeException e) {
+            ctx.response().setStatusCode(400).end(String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Determines the database name of a path. For the '/store/{dbname}' paths this is the dbname, for all other paths
+     * it's the path itself.
+     */
+    private static String database(String path) {
+        return path.startsWith("/store/") ? path.substring("/store/".length()) : path;
+    }
+
+    private static void respond(RoutingContext ctx, JsonObject body) {
+        ctx.response().putHeader("content-type", "application/json").end(body.encode());
+    }
+
+    private void query(RoutingContext ctx) {
+
+        final JsonObject params = new JsonObject();
+        ctx.request().params().forEach(param -> params.put(param.getKey(), param.getValue()));
+        LOG.debug("> GET {} {}", ctx.normalisedPath(), params);
+        vertx.eventBus().<JsonObject>send(ctx.normalisedPath(), params, reply -> {
+            if (reply.succeeded()) {
+                respond(ctx, reply.result().body());
+            } else {
+                queryFailed(ctx, reply.cause());
+            }
+        });
+    }
+
+    private static void queryFailed(RoutingContext ctx, Throwable cause) {
+
+        final ReplyException failure = cause instanceof ReplyException ? (ReplyException) cause : null;
+        if (failure != null && failure.failureType() == ReplyFailure.NO_HANDLERS) {
+            ctx.response().setStatusCode(404).end();
+        } else if (failure != null
+                && failure.failureType() == ReplyFailure.RECIPIENT_FAILURE
+                && failure.failureCode() >= 400
+                && failure.failureCode() < 600) {
+            //the consumer rejected the query with a http status code, i.e. 400 for invalid parameters
+            ctx.response().setStatusCode(failure.failureCode()).end(String.valueOf(cause.getMessage()));
+        } else {
+            ctx.response().setStatusCode(500).end(String.valueOf(cause.getMessage()));
+        }
+    }
+
     private void ping(RoutingContext routingContext) {
 
         routingContext.response().putHeader("content-type", "text/html").end("TimeSeries Collector");
@@ -0,0 +1,101 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import org.slf4j.Logger;
+
+import io.vertx.core.Handler;
+import io.vertx.rxjava.core.http.HttpClient;
+
+/**
+ * A single InfluxDB instance the {@link InfluxVerticle} writes to. Each node has its own http client and therefore
+ * its own connection pool. A node that fails to accept a write is marked as down for a configurable interval
+ * during which it is skipped by the routing, afterwards it is tried again.
+ */
+class InfluxNode {
+
+    private static final Logger LOG = getLogger(InfluxNode.class);
+
+    private final HttpClient http;
+
+    private final String name;
+
+    private final long retryInterval;
+
+    private long downUntil;
+
+    /**
+     * Creates a new node.
+     * @param http
+     *  the http client connected to the node
+     * @param host
+     *  the host of the node
+     * @param port
+     *  the port of the node
+     * @param retryInterval
+     *  the time in ms a node is considered down after a failed write
+     */
+    InfluxNode(HttpClient http, String host, int port, long retryInterval) {
+        this.http = http;
+        this.name = host + ":" + port;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * Indicates whether writes may be sent to this node.
+     * @return
+     *  true if the node is considered up
+     */
+    boolean isAvailable() {
+        return System.currentTimeMillis() >= downUntil;
+    }
+
+    /**
+     * Marks this node as down for the retry interval
+     */
+    void markDown() {
+        LOG.warn("Influx node {} is down, retrying in {} ms", name, retryInterval);
+        this.downUntil = System.currentTimeMillis() + retryInterval;
+    }
+
+    /**
+     * Posts the lines to the write endpoint of this node.
+     * @param uri
+     *  the request uri, including the database parameter
+     * @param lines
+     *  the datapoints in line protocol
+     * @param done
+     *  handler that is notified once the write completed. It receives true if the node accepted the request or
+     *  rejected it as invalid, or false if the node could not be reached or failed with a server error, in which case
+     *  the write may be retried on another node.
+     */
+    void post(String uri, String lines, Handler<Boolean> done) {
+
+        final Handler<Boolean> once = new Handler<Boolean>() {
+            private boolean completed;
+            @Override
+            public void handle(Boolean success) {
+                if (!completed) {
+                    completed = true;
+                    done.handle(success);
+                }
+            }
+        };
+        LOG.trace("Sending measures length = {} Bytes to {}", lines.length(), name);
+        this.http.post(uri, response -> {
+            if (response.statusCode() >= 400) {
+                LOG.warn("{} {} {}", name, response.statusCode(), response.statusMessage());
+                response.bodyHandler(data -> LOG.warn(data.toString()));
+            }
+            once.handle(response.statusCode() < 500);
+        }).exceptionHandler(e -> {
+            LOG.warn("Write to {} failed: {}", name, e.getMessage());
+            once.handle(false);
+        }).end(lines);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
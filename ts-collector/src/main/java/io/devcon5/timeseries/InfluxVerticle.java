@@ -2,15 +2,23 @@ package io.devcon5.timeseries;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
-import java.util.regex.Pattern;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
 import org.slf4j.Logger;
 
+import io.vertx.core.Handler;
 import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.rxjava.core.AbstractVerticle;
-import io.vertx.rxjava.core.http.HttpClient;
+import io.vertx.rxjava.core.eventbus.Message;
 
 /**
  * The influx Verticle accepts a JSON datapoint of the format:
@@ -31,19 +39,41 @@ import io.vertx.rxjava.core.http.HttpClient;
  * </pre>
  * The InfluxVerticle can be addressed via the general '/store/{dbname}' address or via the
  * '/influc/write?db={dbname}' address. Both can be used as URI paths when being send via HTTP.
+ * <p>
+ * The datapoints can be distributed over multiple Influx instances, listed in the 'nodes' config property:
+ * <pre>
+ *     "nodes" : [
+ *          { "host" : "influx1", "port" : 8086 },
+ *          { "host" : "influx2", "port" : 8086 }
+ *     ],
+ *     "replicationFactor" : 2,
+ *     "virtualNodes" : 128,
+ *     "nodeRetryInterval" : 10000
+ * </pre>
+ * Each datapoint is routed by the consistent hash of its series key, so all points of a series are written to the
+ * same node(s), and adding a node only moves a fraction of the series. With a replication factor greater than 1,
+ * each datapoint is written to that many distinct nodes. Each node has its own connection pool, the batches are split
+ * per node. When a node can not be reached, it is marked as down and its writes fail over to the next node on the
+ * ring. If no nodes are configured, the single node specified by 'defaultHost' and 'defaultPort' is used.
+ * <p>
+ * Json datapoints are collected into batches of 'maxRowLimit' datapoints, a {@link ColumnarBatch} or a json array
+ * of datapoints is written as it is received. If such a batch has been sent with a reply address, the reply is
+ * sent once all nodes have responded. If datapoints of the batch were dropped because no node was left to write
+ * them to, the message is failed with code 503 instead.
  */
 public class InfluxVerticle extends AbstractVerticle {
 
     private static final Logger LOG = getLogger(InfluxVerticle.class);
 
-    private final Pattern SPECIAL_CHARS = Pattern.compile("([\\s,=\"])");
+    private ConsistentHashRing<InfluxNode> ring;
 
-    private HttpClient http;
+    private int replicationFactor;
 
     @Override
     public void start() throws Exception {
         JsonObject config = config();
-        this.http = vertx.createHttpClient(new HttpClientOptions(config));
+        this.ring = createRing(config);
+        this.replicationFactor = Math.max(1, Math.min(config.getInteger("replicationFactor", 1), ring.size()));
         if(config.containsKey("dbnames")){
             config.getJsonArray("dbnames").forEach(dbname -> registerConsumer((String) dbname));
             LOG.info("InfluxDB timeseries verticle started");
@@ -52,121 +82,299 @@ public class InfluxVerticle extends AbstractVerticle {
         }
     }
 
+    /**
+     * Creates the hash ring of all configured influx nodes. Each node is created from the http client options of
+     * the verticle's config, overridden by the host and port of the node.
+     * @param config
+     *  the verticle's config
+     * @return
+     *  a ring containing all configured nodes
+     */
+    private ConsistentHashRing<InfluxNode> createRing(JsonObject config) {
+
+        final long retryInterval = config.getLong("nodeRetryInterval", 10000L);
+        final ConsistentHashRing<InfluxNode> ring = new ConsistentHashRing<>(config.getInteger("virtualNodes", 128));
+        config.getJsonArray("nodes", new JsonArray().add(new JsonObject())).forEach(n -> {
+            final JsonObject node = (JsonObject) n;
+            final HttpClientOptions opts = new HttpClientOptions(config);
+            if (node.containsKey("host")) {
+                opts.setDefaultHost(node.getString("host"));
+            }
+            if (node.containsKey("port")) {
+                opts.setDefaultPort(node.getInteger("port"));
+            }
+            ring.add(new InfluxNode(vertx.createHttpClient(opts),
+                                    opts.getDefaultHost(),
+                                    opts.getDefaultPort(),
+                                    retryInterval));
+        });
+        LOG.info("Writing to Influx nodes {} with replication factor {}",
+                 ring.members(),
+                 config.getInteger("replicationFactor", 1));
+        return ring;
+    }
+
     private void registerConsumer(final String dbname) {
         LOG.debug("Registering handler for {} database", dbname);
-        if(LOG.isTraceEnabled()){
-            vertx.eventBus().<JsonObject>consumer("/store/" + dbname, msg -> {
-                LOG.trace("received datapoint for db '{}': {}", dbname, msg.body());
-            });
+        final int maxRowLimit = config().getInteger("maxRowLimit", 1000);
+        final List<JsonObject> pending = new ArrayList<>();
+        final Handler<Message<Object>> handler = msg -> {
+            LOG.trace("received datapoints for db '{}': {}", dbname, msg.body());
+            if (msg.body() instanceof ColumnarBatch) {
+                write(dbname, (ColumnarBatch) msg.body(), dropped -> acknowledge(msg, dropped));
+                return;
+            }
+            if (msg.body() instanceof JsonArray) {
+                write(dbname, datapoints((JsonArray) msg.body()), dropped -> acknowledge(msg, dropped));
+                return;
+            }
+            pending.add((JsonObject) msg.body());
+            if (pending.size() >= maxRowLimit) {
+                write(dbname, new ArrayList<>(pending), dropped -> {});
+                pending.clear();
+            }
+        };
+        vertx.eventBus().<Object>consumer("/store/" + dbname, handler);
+        vertx.eventBus().<Object>consumer("/influx/write?db=" + dbname, handler);
+    }
+
+    /**
+     * Replies to a message that was sent, not published, once its datapoints have been written, so the sender, i.e.
+     * the {@link FanOutVerticle}, knows when to send the next batch. If datapoints have been dropped, the message
+     * is failed, so the sender counts the batch as failed.
+     * @param msg
+     *  the message containing the datapoints
+     * @param dropped
+     *  the number of datapoints that could not be written to any node
+     */
+    private static void acknowledge(Message<Object> msg, int dropped) {
+        if (msg.replyAddress() == null) {
+            return;
+        }
+        if (dropped > 0) {
+            msg.fail(503, "No Influx node available, dropped " + dropped + " datapoints");
+        } else {
+            msg.reply(new JsonObject());
         }
-        vertx.eventBus().<JsonObject>consumer("/store/" + dbname).bodyStream()
-                                                                 .toObservable()
-                                                                 .buffer(config().getInteger("maxRowLimit", 1000))
-                                                                 .map(this::joinDataPoints)
-                                                                 .subscribe(result -> sendDatapoint(dbname, result));
-        vertx.eventBus().<JsonObject>consumer("/influx/write?db=" + dbname).bodyStream()
-                                                                 .toObservable()
-                                                                 .buffer(config().getInteger("maxRowLimit", 1000))
-                                                                 .map(this::joinDataPoints)
-                                                                 .subscribe(result -> sendDatapoint(dbname, result));
     }
 
-    void sendDatapoint(String dbname, String msg) {
+    private static List<JsonObject> datapoints(JsonArray array) {
 
-        LOG.trace("Sending measures length = {} Bytes ", msg.length());
-        this.http.post("/write?db=" + dbname, response -> {
-            if (response.statusCode() >= 400) {
-                LOG.warn("{} {}", response.statusCode(), response.statusMessage());
-                response.bodyHandler(data -> LOG.warn(data.toString()));
-            }
-        }).end(msg);
+        final List<JsonObject> dps = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            dps.add(array.getJsonObject(i));
+        }
+        return dps;
     }
 
     /**
-     * Joins multiple datapoints into a single string in the Infux line protocol
+     * Routes each datapoint to the nodes responsible for its series and sends a single batch to each of the nodes.
+     * @param dbname
+     *  the name of the database to write to
      * @param dps
-     *  list of single datapoints
-     * @return
-     *  all datapoints in line protocol, with each line containing a datapoint
+     *  the datapoints to write
+     * @param done
+     *  invoked when all nodes have responded, including the failover attempts, with the number of datapoints that
+     *  could not be written to any node
      */
-    private String joinDataPoints(final List<JsonObject> dps) {
+    void write(String dbname, List<JsonObject> dps, IntConsumer done) {
+        write(dbname,
+              dps.size(),
+              i -> LineProtocol.format(dps.get(i)),
+              i -> ConsistentHashRing.hash(SeriesKey.of(dps.get(i))),
+              done);
+    }
 
-        return dps.stream()
-                  .map(this::toLineProtocol)
-                  .collect(() -> new StringJoiner("\n"), StringJoiner::add, StringJoiner::merge)
-                  .toString();
+    /**
+     * Routes each datapoint of a columnar batch to the nodes responsible for its series. The hash of the series key
+     * and the line protocol prefix of each datapoint are taken from the series dictionary.
+     * @param dbname
+     *  the name of the database to write to
+     * @param batch
+     *  the datapoints to write
+     * @param done
+     *  invoked when all nodes have responded, including the failover attempts, with the number of datapoints that
+     *  could not be written to any node
+     */
+    void write(String dbname, ColumnarBatch batch, IntConsumer done) {
+
+        final String[] lines = LineProtocol.lines(batch);
+        write(dbname, lines.length, i -> lines[i], i -> batch.getSeries(i).getHash(), done);
+    }
+
+    /**
+     * Groups the datapoints by the walk of the ring segment of their series, so that only one route is created per
+     * segment instead of per datapoint, and sends them to the nodes of their route.
+     */
+    private void write(String dbname,
+                       int count,
+                       IntFunction<String> lines,
+                       IntToLongFunction seriesHashes,
+                       IntConsumer done) {
+
+        //the ring shares the walk of equal segments, so the identity of the walk identifies the route
+        final Map<List<InfluxNode>, Route> routes = new IdentityHashMap<>();
+        for (int i = 0; i < count; i++) {
+            routes.computeIfAbsent(ring.walk(seriesHashes.applyAsLong(i)), Route::new).lines.add(lines.apply(i));
+        }
+        final Map<InfluxNode, List<Route>> batches = new HashMap<>();
+        int dropped = 0;
+        for (Route route : routes.values()) {
+            for (int r = 0; r < replicationFactor; r++) {
+                final InfluxNode node = route.next();
+                if (node == null) {
+                    LOG.error("No Influx node available, dropping {} datapoints", route.lines.size());
+                    dropped += route.lines.size();
+                    break;
+                }
+                batches.computeIfAbsent(node, n -> new ArrayList<>()).add(route);
+            }
+        }
+        final PendingWrites pendingWrites = PendingWrites.shared();
+        pendingWrites.started();
+        final Completion completion = new Completion(failed -> {
+            pendingWrites.completed();
+            done.accept(failed);
+        });
+        completion.dropped(dropped);
+        batches.forEach((node, batch) -> send(dbname, node, batch, completion));
+        completion.release();
     }
 
     /**
-     * Converts a json datapoint with the properties: name, tags, values, timestamp into the line protocol used
-     * by influx.
-     *
-     * @param datapoint
-     *         datapoint to send
-     *
-     * @return the datapoint in line protocol representation
+     * Sends a batch of datapoints to a single node. If the node fails, the datapoints are sent to their next
+     * available node.
+     * @param dbname
+     *  the name of the database to write to
+     * @param node
+     *  the node to send the batch to
+     * @param routes
+     *  the routes of the datapoints of the batch
+     * @param completion
+     *  the completion of the write the batch belongs to
      */
-    String toLineProtocol(JsonObject datapoint) {
+    private void send(String dbname, InfluxNode node, List<Route> routes, Completion completion) {
 
-        return toLineProtocol(datapoint.getString("name"),
-                              datapoint.getJsonObject("tags"),
-                              datapoint.getJsonObject("values"),
-                              datapoint.getLong("timestamp"));
+        completion.acquire();
+        node.post("/write?db=" + dbname, joinDataPoints(routes), success -> {
+            if (!success) {
+                node.markDown();
+                failover(dbname, routes, completion);
+            }
+            completion.release();
+        });
     }
 
     /**
-     * Creates a Influx LineProtocol measure of the format
-     * <pre>
-     *     measure_name[,tag_name=tag_value]* field_name=field_value[,field_name=field_value]* timestamp
-     * </pre>
-     *
-     * @param measureName
-     *         the name of the measure, used for measure_name
-     * @param tags
-     *         an object with tags. Each property name is used as tag_name and the according value as tag_value
-     * @param timestamp
-     *         the timestamp in nanoseconds
-     * @param values
-     *         on object withe fields. Each property name is used as field_name and the according value as field_value
-     *
-     * @returns {string} a string representing a measure for influx
+     * Resends the datapoints of a failed batch, each to the next available node on its route that has not yet
+     * received it.
+     * @param dbname
+     *  the name of the database to write to
+     * @param routes
+     *  the routes of the datapoints of the failed batch
+     * @param completion
+     *  the completion of the write the batch belongs to
      */
-    String toLineProtocol(String measureName, JsonObject tags, JsonObject values, Long timestamp) {
+    private void failover(String dbname, List<Route> routes, Completion completion) {
 
-        return measureName + (tags.size() > 0 ? "," + flatten(tags) : "") + " " + flatten(values) + " " + timestamp;
+        final Map<InfluxNode, List<Route>> batches = new HashMap<>();
+        int dropped = 0;
+        for (Route route : routes) {
+            final InfluxNode node = route.next();
+            if (node == null) {
+                dropped += route.lines.size();
+            } else {
+                batches.computeIfAbsent(node, n -> new ArrayList<>()).add(route);
+            }
+        }
+        if (dropped > 0) {
+            LOG.error("No Influx node available, dropped {} datapoints for db '{}'", dropped, dbname);
+            completion.dropped(dropped);
+        }
+        batches.forEach((node, batch) -> send(dbname, node, batch, completion));
     }
 
     /**
-     * Flattens an object into a key=value pair representation, with each pair separated by a comma
-     *
-     * @param obj
-     *         an object, i.e. { "aKey" : "aValue", "bKey":"bValue"}
-     *
-     * @returns {string} a comma separated string of the key-value pairs , i.e. aKey=aValue,bKey=bValue
+     * Joins multiple datapoints into a single string in the Infux line protocol
+     * @param routes
+     *  list of routes of the datapoints
+     * @return
+     *  all datapoints in line protocol, with each line containing a datapoint
      */
-    String flatten(JsonObject obj) {
+    private String joinDataPoints(final List<Route> routes) {
 
-        return obj.getMap()
-                  .entrySet()
-                  .stream()
-                  .map(e -> escape(e.getKey()) + "=" + escape(e.getValue()))
-                  .collect(() -> new StringJoiner(","), StringJoiner::add, StringJoiner::merge)
+        return routes.stream()
+                  .flatMap(route -> route.lines.stream())
+                  .collect(() -> new StringJoiner("\n"), StringJoiner::add, StringJoiner::merge)
                   .toString();
     }
 
     /**
-     * Escapes characters with a backslash that are not allowed to be send unescaped over the line protocol
-     *
-     * @param obj
-     *         the object to be escaped. Only strings are escaped. If the object is not a string, nothing is done.
-     *
-     * @return the escaped string or the original object if the input parameter was no string
+     * Counts the outstanding requests of a single write and runs the done callback once all requests have completed.
+     * The count starts at one, which is released after all initial requests have been sent, so the callback is
+     * not run before that, even if the requests complete immediately. The callback receives the number of
+     * datapoints that have been dropped because their route ran out of nodes.
      */
-    Object escape(Object obj) {
+    private static final class Completion {
+
+        private final IntConsumer done;
+
+        private int pending = 1;
+
+        private int dropped;
+
+        Completion(IntConsumer done) {
+            this.done = done;
+        }
+
+        void dropped(int datapoints) {
+            dropped += datapoints;
+        }
 
-        if (obj instanceof String) {
-            return SPECIAL_CHARS.matcher((String) obj).replaceAll("\\\\$1");
+        void acquire() {
+            pending++;
+        }
+
+        void release() {
+            if (--pending == 0) {
+                done.accept(dropped);
+            }
+        }
+    }
+
+    /**
+     * The route of the datapoints of one ring segment: the nodes of the ring in the order of preference for the
+     * series of that segment. Each call to next returns the next available node that has not been returned before,
+     * so that neither a replica nor a failover target receives the same datapoints twice. If all nodes are down,
+     * the owner of the series is tried anyway, so that no datapoint is dropped without a single attempt to write it.
+     */
+    private static class Route {
+
+        private final List<String> lines = new ArrayList<>();
+
+        private final List<InfluxNode> nodes;
+
+        private int position;
+
+        private boolean routed;
+
+        Route(List<InfluxNode> nodes) {
+            this.nodes = nodes;
+        }
+
+        InfluxNode next() {
+            while (position < nodes.size()) {
+                final InfluxNode node = nodes.get(position++);
+                if (node.isAvailable()) {
+                    routed = true;
+                    return node;
+                }
+            }
+            if (!routed && !nodes.isEmpty()) {
+                routed = true;
+                return nodes.get(0);
+            }
+            return null;
         }
-        return obj;
     }
 }
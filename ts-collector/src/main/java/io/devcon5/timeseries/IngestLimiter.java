@@ -0,0 +1,286 @@
+package io.devcon5.timeseries;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Limits the rate of ingested datapoints and bytes per database and per client using {@link TokenBucket}s.
+ * The limits are defined as
+ * <pre>
+ *     {
+ *      "policy" : "reject",
+ *      "sampleRate" : 0.1,
+ *      "databases" : {
+ *          "*" : { "pointsPerSecond" : 10000, "bytesPerSecond" : 1048576, "burst" : 1.0 },
+ *          "test" : { "pointsPerSecond" : 100 }
+ *      },
+ *      "clients" : {
+ *          "*" : { "pointsPerSecond" : 1000 }
+ *      }
+ *     }
+ * </pre>
+ * The limits of a database or client are looked up by its name, or '*' if there is no specific limit. If neither
+ * exists, the database or client is not limited. The burst is the number of seconds of the rate a bucket can hold.
+ * A request has to pass the limits of its database and of its client. With the 'reject' policy, requests exceeding
+ * a limit are rejected, with the 'sample' policy only the 'sampleRate' fraction of the exceeding requests is
+ * accepted. The limits can be replaced at runtime, the state of existing buckets is kept.
+ * <br>
+ * The buckets of databases and clients that have not sent a request for 'idleTimeout' ms (default 60000), and at
+ * least for the burst duration of their limit, are removed. Such a bucket would be full again anyway, so the
+ * limits are not affected, but the state doesn't grow with the number of distinct clients. For the same reason,
+ * rejected requests are only counted per database or client if it has a specific limit, all others are counted
+ * under '*'.
+ */
+class IngestLimiter {
+
+    /**
+     * The decision about a single request
+     */
+    enum Decision {
+        /**
+         * The request is within its limits
+         */
+        ACCEPT,
+        /**
+         * The request exceeds its limits, but was sampled
+         */
+        SAMPLE,
+        /**
+         * The request exceeds its limits and was not sampled
+         */
+        DROP,
+        /**
+         * The request exceeds its limits
+         */
+        REJECT
+    }
+
+    private static final Limit UNLIMITED = new Limit(null, null, 0);
+
+    /**
+     * The maximum time in ms between two scans for idle buckets
+     */
+    private static final long EVICTION_INTERVAL = 1000;
+
+    private final Map<String, Limit> databases = new ConcurrentHashMap<>();
+
+    private final Map<String, Limit> clients = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+
+    private volatile JsonObject config;
+
+    private volatile boolean sample;
+
+    private volatile double sampleRate;
+
+    private volatile long idleTimeout;
+
+    private volatile long lastEviction = System.currentTimeMillis();
+
+    /**
+     * Creates a limiter for the limits configuration
+     * @param config
+     *  the configuration of the limits
+     */
+    IngestLimiter(JsonObject config) {
+        configure(config);
+    }
+
+    /**
+     * Replaces the limits of this limiter. Existing buckets are updated to the new rates, buckets that have no
+     * limit anymore are removed.
+     * @param config
+     *  the new limits configuration
+     */
+    final synchronized void configure(JsonObject config) {
+
+        final String policy = config.getString("policy", "reject");
+        if (!"reject".equals(policy) && !"sample".equals(policy)) {
+            throw new IllegalArgumentException("Unknown policy " + policy);
+        }
+        this.sample = "sample".equals(policy);
+        this.sampleRate = config.getDouble("sampleRate", 0.1);
+        this.idleTimeout = config.getLong("idleTimeout", 60000L);
+        this.config = config.copy();
+        reconfigure(databases, config.getJsonObject("databases", new JsonObject()));
+        reconfigure(clients, config.getJsonObject("clients", new JsonObject()));
+    }
+
+    /**
+     * Decides whether a request is admitted.
+     * @param database
+     *  the name of the database the request is addressed to
+     * @param client
+     *  the client sending the request
+     * @param points
+     *  the number of datapoints in the request
+     * @param bytes
+     *  the size of the request
+     * @return
+     *  the decision about the request
+     */
+    Decision tryAcquire(String database, String client, long points, long bytes) {
+
+        final long now = System.currentTimeMillis();
+        if (now - lastEviction >= Math.min(idleTimeout, EVICTION_INTERVAL)) {
+            lastEviction = now;
+            evictIdle(databases, now);
+            evictIdle(clients, now);
+        }
+        final Limit databaseLimit = limitOf(databases, "databases", database);
+        if (databaseLimit.tryAcquire(points, bytes, now)) {
+            if (limitOf(clients, "clients", client).tryAcquire(points, bytes, now)) {
+                return Decision.ACCEPT;
+            }
+            databaseLimit.release(points, bytes);
+            countRejected("clients", client);
+        } else {
+            countRejected("databases", database);
+        }
+        if (sample) {
+            return ThreadLocalRandom.current().nextDouble() < sampleRate ? Decision.SAMPLE : Decision.DROP;
+        }
+        return Decision.REJECT;
+    }
+
+    /**
+     * The current limits and the number of rejected requests per database and client
+     * @return
+     *  a json object with the current 'limits' and the 'rejected' counts
+     */
+    JsonObject stats() {
+
+        final JsonObject counts = new JsonObject();
+        rejected.forEach((key, count) -> counts.put(key, count.sum()));
+        return new JsonObject().put("limits", config).put("rejected", counts);
+    }
+
+    /**
+     * The number of databases and clients that currently have buckets
+     */
+    int getBucketCount() {
+        return databases.size() + clients.size();
+    }
+
+    private void countRejected(String type, String name) {
+
+        final String key = type.substring(0, type.length() - 1) + ':'
+                + (config.getJsonObject(type, new JsonObject()).containsKey(name) ? name : "*");
+        rejected.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private void evictIdle(Map<String, Limit> limits, long now) {
+        limits.values().removeIf(limit -> now - limit.lastUsed > Math.max(idleTimeout, limit.burstMillis));
+    }
+
+    private Limit limitOf(Map<String, Limit> limits, String type, String name) {
+
+        final Limit limit = limits.get(name);
+        if (limit != null) {
+            return limit;
+        }
+        final JsonObject definitions = config.getJsonObject(type, new JsonObject());
+        final JsonObject definition = definitions.getJsonObject(name, definitions.getJsonObject("*"));
+        if (definition == null) {
+            return UNLIMITED;
+        }
+        return limits.computeIfAbsent(name, n -> Limit.create(definition));
+    }
+
+    private static void reconfigure(Map<String, Limit> limits, JsonObject definitions) {
+
+        limits.entrySet().removeIf(e -> {
+            final JsonObject definition = definitions.getJsonObject(e.getKey(), definitions.getJsonObject("*"));
+            return definition == null || !e.getValue().update(definition);
+        });
+    }
+
+    /**
+     * The buckets for datapoints and bytes of a single database or client
+     */
+    private static final class Limit {
+
+        private final TokenBucket points;
+
+        private final TokenBucket bytes;
+
+        /**
+         * The time in ms an empty bucket needs to fill up
+         */
+        private volatile long burstMillis;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Limit(TokenBucket points, TokenBucket bytes, long burstMillis) {
+            this.points = points;
+            this.bytes = bytes;
+            this.burstMillis = burstMillis;
+        }
+
+        static Limit create(JsonObject definition) {
+
+            final double burst = definition.getDouble("burst", 1.0);
+            return new Limit(definition.containsKey("pointsPerSecond")
+                             ? new TokenBucket(definition.getDouble("pointsPerSecond"), burst)
+                             : null,
+                             definition.containsKey("bytesPerSecond")
+                             ? new TokenBucket(definition.getDouble("bytesPerSecond"), burst)
+                             : null,
+                             (long) Math.ceil(burst * 1000));
+        }
+
+        /**
+         * Updates the rates of the buckets
+         * @param definition
+         *  the new limit definition
+         * @return
+         *  false if the definition limits other quantities than this limit, so that the limit has to be recreated
+         */
+        boolean update(JsonObject definition) {
+
+            if ((points != null) != definition.containsKey("pointsPerSecond")
+                    || (bytes != null) != definition.containsKey("bytesPerSecond")) {
+                return false;
+            }
+            final double burst = definition.getDouble("burst", 1.0);
+            burstMillis = (long) Math.ceil(burst * 1000);
+            if (points != null) {
+                points.setRate(definition.getDouble("pointsPerSecond"), burst);
+            }
+            if (bytes != null) {
+                bytes.setRate(definition.getDouble("bytesPerSecond"), burst);
+            }
+            return true;
+        }
+
+        boolean tryAcquire(long pointCount, long byteCount, long now) {
+
+            lastUsed = now;
+            if (points != null && !points.tryAcquire(pointCount)) {
+                return false;
+            }
+            if (bytes != null && !bytes.tryAcquire(byteCount)) {
+                if (points != null) {
+                    points.release(pointCount);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        void release(long pointCount, long byteCount) {
+
+            if (points != null) {
+                points.release(pointCount);
+            }
+            if (bytes != null) {
+                bytes.release(byteCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package io.devcon5.timeseries;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Concurrent cache of the latest datapoint of each series. The entries are grouped by measurement, so a query for a
+ * single measurement only has to look at the series of that measurement. A datapoint replaces the cached entry of its
+ * series unless it is older than the cached one. The series are identified by their {@link SeriesKey}, json datapoints
+ * are not registered in the {@link SeriesDictionary}, which never removes a series, so evicted and expired series do
+ * not occupy any memory.
+ * <br>
+ * The cache is bounded by the number of series. When the bound is exceeded, the least recently updated or read
+ * entries are evicted until the cache is 10% below its bound, so the eviction cost is amortized over many inserts.
+ * Entries that have not been updated for the time-to-live are not returned anymore and removed by {@link #expire(long)}.
+ * The series map of a measurement is removed with its last series, so short-lived measurement names don't accumulate.
+ */
+final class LastValueCache {
+
+    private final Map<String, Map<String, Entry>> measurements = new ConcurrentHashMap<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    private final LongAdder evicted = new LongAdder();
+
+    private final int maxSeries;
+
+    private final long ttl;
+
+    /**
+     * Creates a new cache
+     * @param maxSeries
+     *  the maximum number of series in the cache
+     * @param ttl
+     *  the time in ms after which a series that has not been updated is removed
+     */
+    LastValueCache(int maxSeries, long ttl) {
+        this.maxSeries = maxSeries;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Updates the cache with a json datapoint with the properties name, tags, values and timestamp.
+     * @param datapoint
+     *  the datapoint
+     * @param now
+     *  the current time in ms
+     */
+    void update(JsonObject datapoint, long now) {
+
+        final String name = datapoint.getString("name");
+        final JsonObject values = datapoint.getJsonObject("values");
+        final Long timestamp = datapoint.getLong("timestamp");
+        if (name == null || values == null || timestamp == null) {
+            return;
+        }
+        final String[] fields = new String[values.size()];
+        final Object[] fieldValues = new Object[fields.length];
+        int i = 0;
+        for (Map.Entry<String, Object> value : values) {
+            fields[i] = value.getKey();
+            fieldValues[i++] = value.getValue();
+        }
+        final JsonObject tags = datapoint.getJsonObject("tags");
+        final Map<String, String> sortedTags = new TreeMap<>();
+        if (tags != null) {
+            tags.forEach(tag -> sortedTags.put(tag.getKey(), String.valueOf(tag.getValue())));
+        }
+        update(new Entry(SeriesKey.of(name, sortedTags), name, sortedTags, timestamp, fields, fieldValues, now));
+    }
+
+    /**
+     * Updates the cache with all datapoints of a columnar batch.
+     * @param batch
+     *  the datapoints
+     * @param now
+     *  the current time in ms
+     */
+    void update(ColumnarBatch batch, long now) {
+
+        for (int row = 0; row < batch.size(); row++) {
+            int count = 0;
+            for (int f = 0; f < batch.getFieldCount(); f++) {
+                if (!Double.isNaN(batch.getValue(f, row))) {
+                    count++;
+                }
+            }
+            final String[] fields = new String[count];
+            final Object[] values = new Object[count];
+            for (int f = 0, i = 0; f < batch.getFieldCount(); f++) {
+                final double value = batch.getValue(f, row);
+                if (!Double.isNaN(value)) {
+                    fields[i] = batch.getFieldName(f);
+                    values[i++] = value;
+                }
+            }
+            final SeriesDictionary.Series series = batch.getSeries(row);
+            update(new Entry(series.getKey(),
+                             series.getName(),
+                             series.getTags(),
+                             batch.getTimestamp(row),
+                             fields,
+                             values,
+                             now));
+        }
+    }
+
+    private void update(Entry entry) {
+
+        final boolean[] added = new boolean[1];
+        Map<String, Entry> series;
+        do {
+            series = measurements.computeIfAbsent(entry.name, m -> new ConcurrentHashMap<>());
+            added[0] = false;
+            series.compute(entry.key, (key, cached) -> {
+                if (cached == null) {
+                    added[0] = true;
+                    return entry;
+                }
+                if (entry.timestamp >= cached.timestamp) {
+                    return entry;
+                }
+                cached.touched = entry.touched;
+                return cached;
+            });
+            //the map may have been removed as empty before the entry was added, the entry would be lost with it
+        } while (measurements.get(entry.name) != series);
+        if (added[0] && size.incrementAndGet() > maxSeries) {
+            evict();
+        }
+    }
+
+    /**
+     * Finds the latest datapoints of all series matching the filters.
+     * @param measurement
+     *  regular expression the measurement name has to match, or null to match all measurements
+     * @param tags
+     *  regular expressions the tag values have to match, by tag name
+     * @param limit
+     *  the maximum number of datapoints to return
+     * @param now
+     *  the current time in ms
+     * @return
+     *  the latest datapoints as json datapoints with the properties name, tags, values and timestamp
+     */
+    List<JsonObject> query(String measurement, Map<String, Pattern> tags, int limit, long now) {
+
+        final List<JsonObject> result = new ArrayList<>();
+        if (measurement != null && isLiteral(measurement)) {
+            collect(measurements.get(measurement), tags, limit, now, result);
+            return result;
+        }
+        final Pattern pattern = measurement == null ? null : Pattern.compile(measurement);
+        for (Map.Entry<String, Map<String, Entry>> m : measurements.entrySet()) {
+            if (pattern == null || pattern.matcher(m.getKey()).matches()) {
+                collect(m.getValue(), tags, limit, now, result);
+            }
+        }
+        return result;
+    }
+
+    private void collect(Map<String, Entry> series,
+                         Map<String, Pattern> tags,
+                         int limit,
+                         long now,
+                         List<JsonObject> result) {
+
+        if (series == null) {
+            return;
+        }
+        for (Entry entry : series.values()) {
+            if (result.size() >= limit) {
+                return;
+            }
+            if (now - entry.updated < ttl && matches(entry.tags, tags)) {
+                entry.touched = now;
+                result.add(entry.toJson());
+            }
+        }
+    }
+
+    private static boolean matches(Map<String, String> seriesTags, Map<String, Pattern> tags) {
+
+        for (Map.Entry<String, Pattern> tag : tags.entrySet()) {
+            final String value = seriesTags.get(tag.getKey());
+            if (value == null || !tag.getValue().matcher(value).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLiteral(String measurement) {
+
+        for (int i = 0; i < measurement.length(); i++) {
+            if ("\\.[]{}()*+?^$|".indexOf(measurement.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all series that have not been updated for the time-to-live.
+     * @param now
+     *  the current time in ms
+     * @return
+     *  the number of removed series
+     */
+    int expire(long now) {
+
+        int removed = 0;
+        for (Map.Entry<String, Map<String, Entry>> measurement : measurements.entrySet()) {
+            final Map<String, Entry> series = measurement.getValue();
+            for (Entry entry : series.values()) {
+                if (now - entry.updated >= ttl && series.remove(entry.key, entry)) {
+                    removed++;
+                }
+            }
+            removeIfEmpty(measurement.getKey());
+        }
+        size.addAndGet(-removed);
+        evicted.add(removed);
+        return removed;
+    }
+
+    /**
+     * Evicts the least recently used series until the cache is 10% below its bound. Only one thread evicts at a
+     * time, others continue without waiting.
+     */
+    private void evict() {
+
+        if (!evicting.tryLock()) {
+            return;
+        }
+        try {
+            final int target = maxSeries - maxSeries / 10;
+            if (size.get() <= target) {
+                return;
+            }
+            final List<Entry> entries = new ArrayList<>(size.get());
+            measurements.values().forEach(series -> entries.addAll(series.values()));
+            entries.sort(Comparator.comparingLong(e -> e.touched));
+            int removed = 0;
+            for (int i = 0; i < entries.size() && size.get() - removed > target; i++) {
+                final Entry entry = entries.get(i);
+                final Map<String, Entry> series = measurements.get(entry.name);
+                if (series != null && series.remove(entry.key, entry)) {
+                    removed++;
+                    removeIfEmpty(entry.name);
+                }
+            }
+            size.addAndGet(-removed);
+            evicted.add(removed);
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    /**
+     * Removes the series map of a measurement if it contains no series anymore.
+     * @param measurement
+     *  the name of the measurement
+     */
+    private void removeIfEmpty(String measurement) {
+        measurements.computeIfPresent(measurement, (name, series) -> series.isEmpty() ? null : series);
+    }
+
+    /**
+     * The number of measurements with cached series
+     */
+    int measurements() {
+        return measurements.size();
+    }
+
+    /**
+     * The number of cached series
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * The total number of series removed by eviction or expiry
+     */
+    long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * The latest datapoint of a single series
+     */
+    private static final class Entry {
+
+        private final String key;
+
+        private final String name;
+
+        private final Map<String, String> tags;
+
+        private final long timestamp;
+
+        private final String[] fields;
+
+        private final Object[] values;
+
+        private final long updated;
+
+        private volatile long touched;
+
+        Entry(String key,
+              String name,
+              Map<String, String> tags,
+              long timestamp,
+              String[] fields,
+              Object[] values,
+              long now) {
+            this.key = key;
+            this.name = name;
+            this.tags = tags;
+            this.timestamp = timestamp;
+            this.fields = fields;
+            this.values = values;
+            this.updated = now;
+            this.touched = now;
+        }
+
+        JsonObject toJson() {
+
+            final JsonObject tagsJson = new JsonObject();
+            tags.forEach(tagsJson::put);
+            final JsonObject json = new JsonObject();
+            for (int i = 0; i < fields.length; i++) {
+                json.put(fields[i], values[i]);
+            }
+            return new JsonObject().put("name", name)
+                                   .put("tags", tagsJson)
+                                   .put("values", json)
+                                   .put("timestamp", timestamp);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+
+/**
+ * Verticle that keeps the latest datapoint of each series of the configured databases in memory and answers queries
+ * for the current values without a roundtrip to the timeseries store.
+ * <pre>
+ *     {
+ *      "dbnames" : [ "test" ],
+ *      "addressPrefix" : "/store/",
+ *      "address" : "/latest",
+ *      "maxSeries" : 100000,
+ *      "ttl" : 3600000
+ *     }
+ * </pre>
+ * The cache of each database is updated with all datapoints, json arrays of datapoints and columnar batches sent to
+ * the '/store/{dbname}' addresses, see {@link LastValueCache}. Messages sent with a reply address, i.e. by the
+ * {@link FanOutVerticle}, are acknowledged once the cache has been updated. Each cache holds up to 'maxSeries'
+ * series, series that have not been updated for 'ttl' ms are removed.
+ * <br>
+ * Queries are answered on the 'address', which is exposed by the {@link HttpServerVerticle} as http GET, i.e.
+ * <pre>
+ *     GET /latest?db=test&amp;measurement=cpu&amp;host=web.*
+ * </pre>
+ * The optional 'measurement' parameter and all parameters other than 'db' and 'limit' are regular expressions the
+ * measurement name and the tag values of a series must match. Without 'db', all databases are queried. The response
+ * contains the latest datapoints of up to 'limit' (default 1000) matching series:
+ * <pre>
+ *     { "series" : [ { "db" : "test", "name" : "cpu", "tags" : {...}, "values" : {...}, "timestamp" : 1234 } ] }
+ * </pre>
+ * The number of cached and evicted series is available via '/stats{address}'.
+ */
+public class LastValueVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = getLogger(LastValueVerticle.class);
+
+    private final Map<String, LastValueCache> caches = new HashMap<>();
+
+    @Override
+    public void start() throws Exception {
+
+        final JsonObject config = config();
+        final String address = config.getString("address", "/latest");
+        final String prefix = config.getString("addressPrefix", "/store/");
+        final int maxSeries = config.getInteger("maxSeries", 100000);
+        final long ttl = config.getLong("ttl", 3600000L);
+        for (Object db : config.getJsonArray("dbnames", new JsonArray())) {
+            final String dbname = (String) db;
+            final LastValueCache cache = new LastValueCache(maxSeries, ttl);
+            caches.put(dbname, cache);
+            vertx.eventBus().<Object>consumer(prefix + dbname, msg -> {
+                final long now = System.currentTimeMillis();
+                if (msg.body() instanceof ColumnarBatch) {
+                    cache.update((ColumnarBatch) msg.body(), now);
+                } else if (msg.body() instanceof JsonArray) {
+                    final JsonArray datapoints = (JsonArray) msg.body();
+                    for (int i = 0; i < datapoints.size(); i++) {
+                        cache.update(datapoints.getJsonObject(i), now);
+                    }
+                } else if (msg.body() instanceof JsonObject) {
+                    cache.update((JsonObject) msg.body(), now);
+                }
+                if (msg.replyAddress() != null) {
+                    msg.reply(new JsonObject());
+                }
+            });
+        }
+        if (caches.isEmpty()) {
+            LOG.warn("No database name configured");
+        }
+        vertx.eventBus().<JsonObject>consumer(address, msg -> {
+            try {
+                msg.reply(query(msg.body()));
+            } catch (RuntimeException e) {
+                msg.fail(400, String.valueOf(e.getMessage()));
+            }
+        });
+        vertx.eventBus().<JsonObject>consumer("/stats" + address, msg -> msg.reply(stats()));
+        vertx.setPeriodic(Math.max(1000, ttl / 10), id -> {
+            final long now = System.currentTimeMillis();
+            caches.values().forEach(cache -> cache.expire(now));
+        });
+        LOG.info("Caching latest values of {}", caches.keySet());
+    }
+
+    /**
+     * Queries the latest datapoints of all series matching the query parameters.
+     * @param params
+     *  the query parameters: db, measurement, limit and tag filters
+     * @return
+     *  a json object with the latest datapoints in the 'series' array
+     */
+    JsonObject query(JsonObject params) {
+
+        final long now = System.currentTimeMillis();
+        final String db = params.getString("db");
+        final String measurement = params.getString("measurement");
+        final int limit = Integer.parseInt(params.getString("limit", "1000"));
+        final Map<String, Pattern> tags = new HashMap<>();
+        for (Map.Entry<String, Object> param : params) {
+            if (!"db".equals(param.getKey()) && !"measurement".equals(param.getKey())
+                    && !"limit".equals(param.getKey())) {
+                tags.put(param.getKey(), Pattern.compile(String.valueOf(param.getValue())));
+            }
+        }
+        final JsonArray series = new JsonArray();
+        caches.forEach((dbname, cache) -> {
+            if (db == null || db.equals(dbname)) {
+                cache.query(measurement, tags, limit - series.size(), now)
+                     .forEach(dp -> series.add(dp.put("db", dbname)));
+            }
+        });
+        return new JsonObject().put("series", series);
+    }
+
+    private JsonObject stats() {
+
+        final JsonObject stats = new JsonObject();
+        caches.forEach((dbname, cache) -> stats.put(dbname, new JsonObject().put("series", cache.size())
+                                                                            .put("evicted", cache.getEvicted())));
+        return stats;
+    }
+}
@@ -0,0 +1,254 @@
+package io.devcon5.timeseries;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Conversion of json datapoints from and to the Influx line protocol.
+ */
+final class LineProtocol {
+
+    private static final Pattern SPECIAL_CHARS = Pattern.compile("([\\s,=\"])");
+
+    private LineProtocol() {}
+
+    /**
+     * Converts a json datapoint with the properties: name, tags, values, timestamp into the line protocol used
+     * by influx.
+     *
+     * @param datapoint
+     *         datapoint to send
+     *
+     * @return the datapoint in line protocol representation
+     */
+    static String format(JsonObject datapoint) {
+
+        return format(datapoint.getString("name"),
+                      datapoint.getJsonObject("tags"),
+                      datapoint.getJsonObject("values"),
+                      datapoint.getLong("timestamp"));
+    }
+
+    /**
+     * Creates a Influx LineProtocol measure of the format
+     * <pre>
+     *     measure_name[,tag_name=tag_value]* field_name=field_value[,field_name=field_value]* timestamp
+     * </pre>
+     *
+     * @param measureName
+     *         the name of the measure, used for measure_name
+     * @param tags
+     *         an object with tags. Each property name is used as tag_name and the according value as tag_value
+     * @param timestamp
+     *         the timestamp in nanoseconds
+     * @param values
+     *         on object withe fields. Each property name is used as field_name and the according value as field_value
+     *
+     * @returns {string} a string representing a measure for influx
+     */
+    static String format(String measureName, JsonObject tags, JsonObject values, Long timestamp) {
+
+        return measureName + (tags != null && tags.size() > 0 ? "," + flatten(tags) : "") + " " + flatten(values) + " " + timestamp;
+    }
+
+    /**
+     * Appends all datapoints of a columnar batch in line protocol, each line followed by a newline. The field names
+     * are escaped only once per batch and the measurement and tags of each series are taken from the dictionary.
+     *
+     * @param batch
+     *         the datapoints to format
+     * @param out
+     *         the builder to append the lines to
+     *
+     * @return the builder
+     */
+    static StringBuilder format(ColumnarBatch batch, StringBuilder out) {
+
+        final String[] fields = escapedFields(batch);
+        for (int row = 0; row < batch.size(); row++) {
+            appendLine(batch, row, fields, out).append('\n');
+        }
+        return out;
+    }
+
+    /**
+     * Converts each datapoint of a columnar batch into a separate line.
+     *
+     * @param batch
+     *         the datapoints to format
+     *
+     * @return the datapoints in line protocol representation, in the order of the batch
+     */
+    static String[] lines(ColumnarBatch batch) {
+
+        final String[] fields = escapedFields(batch);
+        final String[] lines = new String[batch.size()];
+        final StringBuilder line = new StringBuilder(128);
+        for (int row = 0; row < lines.length; row++) {
+            line.setLength(0);
+            lines[row] = appendLine(batch, row, fields, line).toString();
+        }
+        return lines;
+    }
+
+    private static String[] escapedFields(ColumnarBatch batch) {
+
+        final String[] fields = new String[batch.getFieldCount()];
+        for (int f = 0; f < fields.length; f++) {
+            fields[f] = (String) escape(batch.getFieldName(f));
+        }
+        return fields;
+    }
+
+    private static StringBuilder appendLine(ColumnarBatch batch, int row, String[] fields, StringBuilder out) {
+
+        out.append(batch.getSeries(row).getLine()).append(' ');
+        boolean first = true;
+        for (int f = 0; f < fields.length; f++) {
+            final double value = batch.getValue(f, row);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append(fields[f]).append('=');
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                //print integral values without fraction, as they have been received
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+        }
+        return out.append(' ').append(batch.getTimestamp(row));
+    }
+
+    /**
+     * Flattens an object into a key=value pair representation, with each pair separated by a comma
+     *
+     * @param obj
+     *         an object, i.e. { "aKey" : "aValue", "bKey":"bValue"}
+     *
+     * @returns {string} a comma separated string of the key-value pairs , i.e. aKey=aValue,bKey=bValue
+     */
+    static String flatten(JsonObject obj) {
+
+        return obj.getMap()
+                  .entrySet()
+                  .stream()
+                  .map(e -> escape(e.getKey()) + "=" + escape(e.getValue()))
+                  .collect(() -> new StringJoiner(","), StringJoiner::add, StringJoiner::merge)
+                  .toString();
+    }
+
+    /**
+     * Escapes characters with a backslash that are not allowed to be send unescaped over the line protocol
+     *
+     * @param obj
+     *         the object to be escaped. Only strings are escaped. If the object is not a string, nothing is done.
+     *
+     * @return the escaped string or the original object if the input parameter was no string
+     */
+    static Object escape(Object obj) {
+
+        if (obj instanceof String) {
+            return SPECIAL_CHARS.matcher((String) obj).replaceAll("\\\\$1");
+        }
+        return obj;
+    }
+
+    /**
+     * Parses a single line of the line protocol into a json datapoint with the properties name, tags, values and
+     * timestamp. Field values are parsed as integer, floating point number or boolean, any other value is kept as
+     * string. This is the reverse operation of {@link #format(JsonObject)}.
+     *
+     * @param line
+     *         a datapoint in line protocol
+     *
+     * @return the datapoint as json object
+     */
+    static JsonObject parse(String line) {
+
+        final List<String> sections = split(line, ' ');
+        if (sections.size() < 2) {
+            throw new IllegalArgumentException("Not a valid line: " + line);
+        }
+        final List<String> key = split(sections.get(0), ',');
+        final JsonObject tags = new JsonObject();
+        for (String tag : key.subList(1, key.size())) {
+            final List<String> pair = split(tag, '=');
+            tags.put(unescape(pair.get(0)), unescape(pair.get(1)));
+        }
+        final JsonObject values = new JsonObject();
+        for (String field : split(sections.get(1), ',')) {
+            final List<String> pair = split(field, '=');
+            values.put(unescape(pair.get(0)), parseValue(unescape(pair.get(1))));
+        }
+        final JsonObject datapoint = new JsonObject().put("name", unescape(key.get(0)))
+                                                     .put("tags", tags)
+                                                     .put("values", values);
+        if (sections.size() > 2) {
+            datapoint.put("timestamp", Long.parseLong(sections.get(2)));
+        }
+        return datapoint;
+    }
+
+    private static Object parseValue(String value) {
+
+        try {
+            return Long.parseLong(value.endsWith("i") ? value.substring(0, value.length() - 1) : value);
+        } catch (NumberFormatException e) {
+            //not an integer
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            //not a number
+        }
+        if ("true".equals(value) || "false".equals(value)) {
+            return Boolean.valueOf(value);
+        }
+        return value;
+    }
+
+    /**
+     * Splits the string at each occurrence of the separator that is not escaped by a backslash. The parts are not
+     * unescaped.
+     */
+    private static List<String> split(String str, char separator) {
+
+        final List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == separator) {
+                parts.add(str.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(str.substring(start));
+        return parts;
+    }
+
+    private static String unescape(String str) {
+
+        if (str.indexOf('\\') < 0) {
+            return str;
+        }
+        final StringBuilder result = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) == '\\' && i + 1 < str.length()) {
+                i++;
+            }
+            result.append(str.charAt(i));
+        }
+        return result.toString();
+    }
+}
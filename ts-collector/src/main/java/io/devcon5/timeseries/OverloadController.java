@@ -0,0 +1,344 @@
+package io.devcon5.timeseries;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Sheds load at ingest when the collector is overloaded, by sampling the datapoints of less important measurements.
+ * <pre>
+ *     {
+ *      "checkInterval" : 100,
+ *      "eventLoopLag" : 200,
+ *      "pendingWrites" : 100,
+ *      "heapUsage" : 0.9,
+ *      "recovery" : 0.7,
+ *      "sampleTag" : "sample_rate",
+ *      "classes" : {
+ *          "low" : { "priority" : 0, "sampleRate" : 0.1 },
+ *          "normal" : { "priority" : 1, "sampleRate" : 0.5 },
+ *          "critical" : { "priority" : 2, "sampleRate" : 1.0 }
+ *      },
+ *      "defaultClass" : "normal",
+ *      "measurements" : { "debug\\..*" : "low", "alert\\..*" : "critical" }
+ *     }
+ * </pre>
+ * Every 'checkInterval' ms the controller is updated with the event loop lag, the number of pending write batches
+ * and the heap usage. The pressure is the highest ratio of these values to their thresholds. While the pressure is at
+ * or above 1, the shedding level is increased by one on each check, when the pressure drops below 'recovery', the
+ * level is decreased by one on each check until the collector is back to normal.
+ * <br>
+ * Each measurement belongs to the priority class of the first pattern in 'measurements' matching its name, or the
+ * 'defaultClass'. The datapoints of all classes with a priority below the current level are sampled with the
+ * sample rate of their class. So with rising pressure, the low priority measurements are sampled first, then the
+ * normal ones. A class with a sample rate of 1.0 is never sampled, a class with a rate of 0 is dropped entirely.
+ * Sampled datapoints that are kept get the sample rate as tag 'sampleTag', so downstream aggregates can be scaled up.
+ */
+final class OverloadController {
+
+    private static final int ACCEPT = 0;
+
+    private static final int SAMPLE = 1;
+
+    private static final int DROP = 2;
+
+    /**
+     * The maximum number of measurement names whose priority class is cached
+     */
+    static final int MAX_CACHED_MEASUREMENTS = 10000;
+
+    private final long lagThreshold;
+
+    private final long pendingThreshold;
+
+    private final double heapThreshold;
+
+    private final double recovery;
+
+    private final String sampleTag;
+
+    private final Map<String, PriorityClass> classes = new LinkedHashMap<>();
+
+    private final Map<Pattern, PriorityClass> measurements = new LinkedHashMap<>();
+
+    private final Map<String, PriorityClass> classOfMeasurement = new HashMap<>();
+
+    private final PriorityClass defaultClass;
+
+    private final int maxLevel;
+
+    private int level;
+
+    private double pressure;
+
+    private long lag;
+
+    private long pending;
+
+    private double heap;
+
+    private long escalations;
+
+    /**
+     * Creates a controller for the overload configuration
+     * @param config
+     *  the configuration of the thresholds and priority classes
+     */
+    OverloadController(JsonObject config) {
+
+        this.lagThreshold = config.getLong("eventLoopLag", 200L);
+        this.pendingThreshold = config.getLong("pendingWrites", 100L);
+        this.heapThreshold = config.getDouble("heapUsage", 0.9);
+        this.recovery = config.getDouble("recovery", 0.7);
+        this.sampleTag = config.getString("sampleTag", "sample_rate");
+        final JsonObject classConfig = config.getJsonObject("classes", new JsonObject()
+                .put("low", new JsonObject().put("priority", 0).put("sampleRate", 0.1))
+                .put("normal", new JsonObject().put("priority", 1).put("sampleRate", 0.5))
+                .put("critical", new JsonObject().put("priority", 2).put("sampleRate", 1.0)));
+        int highest = 0;
+        for (String name : classConfig.fieldNames()) {
+            final JsonObject definition = classConfig.getJsonObject(name);
+            final PriorityClass priorityClass = new PriorityClass(name,
+                                                                  definition.getInteger("priority", 0),
+                                                                  definition.getDouble("sampleRate", 1.0));
+            classes.put(name, priorityClass);
+            highest = Math.max(highest, priorityClass.priority);
+        }
+        this.maxLevel = highest + 1;
+        this.defaultClass = classNamed(config.getString("defaultClass", "normal"));
+        config.getJsonObject("measurements", new JsonObject())
+              .forEach(m -> measurements.put(Pattern.compile(m.getKey()), classNamed((String) m.getValue())));
+    }
+
+    private PriorityClass classNamed(String name) {
+
+        final PriorityClass priorityClass = classes.get(name);
+        if (priorityClass == null) {
+            throw new IllegalArgumentException("Unknown priority class " + name);
+        }
+        return priorityClass;
+    }
+
+    /**
+     * Updates the shedding level with the current load of the collector.
+     * @param lagMillis
+     *  the current event loop lag in ms
+     * @param pendingWrites
+     *  the number of pending write batches
+     * @param heapUsage
+     *  the used fraction of the tenured heap after its last collection
+     * @return
+     *  true if the level has changed
+     */
+    boolean update(long lagMillis, long pendingWrites, double heapUsage) {
+
+        this.lag = lagMillis;
+        this.pending = pendingWrites;
+        this.heap = heapUsage;
+        this.pressure = Math.max((double) lagMillis / lagThreshold,
+                                 Math.max((double) pendingWrites / pendingThreshold, heapUsage / heapThreshold));
+        if (pressure >= 1.0 && level < maxLevel) {
+            level++;
+            escalations++;
+            return true;
+        }
+        if (pressure < recovery && level > 0) {
+            level--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Samples the datapoints according to the current shedding level.
+     * @param datapoints
+     *  the received datapoints
+     * @return
+     *  the datapoints to be processed, the same list if the collector is not overloaded
+     */
+    List<JsonObject> apply(List<JsonObject> datapoints) {
+
+        if (level == 0) {
+            datapoints.forEach(dp -> classOf(String.valueOf(dp.getString("name"))).accepted++);
+            return datapoints;
+        }
+        final List<JsonObject> accepted = new ArrayList<>(datapoints.size());
+        for (JsonObject dp : datapoints) {
+            final PriorityClass priorityClass = classOf(String.valueOf(dp.getString("name")));
+            final int decision = decide(priorityClass);
+            if (decision == SAMPLE) {
+                JsonObject tags = dp.getJsonObject("tags");
+                if (tags == null) {
+                    tags = new JsonObject();
+                    dp.put("tags", tags);
+                }
+                tags.put(sampleTag, priorityClass.sampleRateTag);
+            }
+            if (decision != DROP) {
+                accepted.add(dp);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Samples the datapoints of a batch according to the current shedding level. The sampled datapoints are moved
+     * to the series with the additional sample rate tag. These series are registered in the dictionary of the batch,
+     * which is a bounded generation of the shared dictionary, see {@link SeriesDictionary#shared()}.
+     * @param batch
+     *  the received batch
+     * @return
+     *  the batch to be processed, the same batch if the collector is not overloaded
+     */
+    ColumnarBatch apply(ColumnarBatch batch) {
+
+        if (level == 0) {
+            for (int row = 0; row < batch.size(); row++) {
+                classOf(batch.getSeries(row).getName()).accepted++;
+            }
+            return batch;
+        }
+        final ColumnarBatch.Builder accepted = batch.derive(batch.size());
+        final Map<Integer, Integer> sampledSeries = new HashMap<>();
+        for (int row = 0; row < batch.size(); row++) {
+            final SeriesDictionary.Series series = batch.getSeries(row);
+            final PriorityClass priorityClass = classOf(series.getName());
+            final int decision = decide(priorityClass);
+            if (decision == ACCEPT) {
+                accepted.add(batch, row);
+            } else if (decision == SAMPLE) {
+                final Integer seriesId = sampledSeries.computeIfAbsent(series.getId(), id -> {
+                    final Map<String, String> tags = new HashMap<>(series.getTags());
+                    tags.put(sampleTag, priorityClass.sampleRateTag);
+                    return accepted.getDictionary().idOf(series.getName(), tags);
+                });
+                accepted.addRow(seriesId, batch.getTimestamp(row));
+                for (int f = 0; f < batch.getFieldCount(); f++) {
+                    final double value = batch.getValue(f, row);
+                    if (!Double.isNaN(value)) {
+                        accepted.setValue(batch.getFieldName(f), value);
+                    }
+                }
+            }
+        }
+        return accepted.build();
+    }
+
+    /**
+     * Decides whether a datapoint of a priority class is accepted, sampled or dropped at the current level and
+     * counts the decision.
+     */
+    private int decide(PriorityClass priorityClass) {
+
+        if (priorityClass.priority >= level || priorityClass.sampleRate >= 1.0) {
+            priorityClass.accepted++;
+            return ACCEPT;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < priorityClass.sampleRate) {
+            priorityClass.sampled++;
+            return SAMPLE;
+        }
+        priorityClass.dropped++;
+        return DROP;
+    }
+
+    /**
+     * The priority class of a measurement, the first matching pattern is cached per measurement name. Once
+     * {@link #MAX_CACHED_MEASUREMENTS} names are cached, the patterns of further names are matched on each call, so
+     * a high number of distinct names does not grow the cache without bounds.
+     */
+    private PriorityClass classOf(String name) {
+
+        if (measurements.isEmpty()) {
+            return defaultClass;
+        }
+        PriorityClass priorityClass = classOfMeasurement.get(name);
+        if (priorityClass == null) {
+            priorityClass = defaultClass;
+            for (Map.Entry<Pattern, PriorityClass> measurement : measurements.entrySet()) {
+                if (measurement.getKey().matcher(name).matches()) {
+                    priorityClass = measurement.getValue();
+                    break;
+                }
+            }
+            if (classOfMeasurement.size() < MAX_CACHED_MEASUREMENTS) {
+                classOfMeasurement.put(name, priorityClass);
+            }
+        }
+        return priorityClass;
+    }
+
+    /**
+     * The number of measurement names whose priority class is cached
+     */
+    int getCachedMeasurements() {
+        return classOfMeasurement.size();
+    }
+
+    /**
+     * The current shedding level. At level 0 no datapoints are sampled, at level n all classes with a priority below
+     * n are sampled.
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * The current load, the shedding level and the number of accepted, sampled and dropped datapoints per class
+     * @return
+     *  a json object with the statistics of the controller
+     */
+    JsonObject stats() {
+
+        final JsonObject perClass = new JsonObject();
+        classes.forEach((name, c) -> perClass.put(name, new JsonObject().put("priority", c.priority)
+                                                                        .put("sampleRate", c.sampleRate)
+                                                                        .put("shedding", c.priority < level
+                                                                                         && c.sampleRate < 1.0)
+                                                                        .put("accepted", c.accepted)
+                                                                        .put("sampled", c.sampled)
+                                                                        .put("dropped", c.dropped)));
+        return new JsonObject().put("level", level)
+                               .put("pressure", pressure)
+                               .put("eventLoopLag", lag)
+                               .put("pendingWrites", pending)
+                               .put("heapUsage", heap)
+                               .put("escalations", escalations)
+                               .put("classes", perClass);
+    }
+
+    private static final class PriorityClass {
+
+        private final String name;
+
+        private final int priority;
+
+        private final double sampleRate;
+
+        private final String sampleRateTag;
+
+        private long accepted;
+
+        private long sampled;
+
+        private long dropped;
+
+        private PriorityClass(String name, int priority, double sampleRate) {
+            this.name = name;
+            this.priority = priority;
+            this.sampleRate = sampleRate;
+            this.sampleRateTag = String.valueOf(sampleRate);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.devcon5.timeseries;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter of the write batches that have been sent to the timeseries store but not completed yet. The counter is
+ * shared by all verticles of the collector, the store verticles count their writes and the {@link OverloadController}
+ * uses the count as a measure of the backlog of the store.
+ */
+final class PendingWrites {
+
+    private static final PendingWrites SHARED = new PendingWrites();
+
+    private final AtomicLong pending = new AtomicLong();
+
+    /**
+     * The counter shared by all verticles of the collector
+     * @return
+     *  the shared counter
+     */
+    static PendingWrites shared() {
+        return SHARED;
+    }
+
+    void started() {
+        pending.incrementAndGet();
+    }
+
+    void completed() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * The number of pending write batches
+     */
+    long get() {
+        return pending.get();
+    }
+}
@@ -0,0 +1,371 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+
+/**
+ * Appends chunks of data to a sequence of segment files using a dedicated writer thread. Callers only enqueue the
+ * chunks, so they never block on disk IO. The writer thread drains all chunks that are queued at once, writes them
+ * through a large direct buffer and syncs the file once per drain (group commit). A segment is closed and a new one
+ * started when it exceeds the maximum size or age. Segments are optionally gzip compressed, each segment being
+ * a self-contained gzip file.
+ * <br>
+ * If writing fails, the current segment is abandoned and the chunks of the failed write as well as all queued chunks
+ * are dropped. Further chunks are rejected for {@link #RETRY_INTERVAL} ms, after which the next chunk is written
+ * to a new segment.
+ * <br>
+ * Segment files are named {@code <prefix>-<creationTimeMillis>-<sequence>.<extension>}, so that their lexical order
+ * is the order in which they have been written.
+ */
+class SegmentWriter implements Closeable {
+
+    private static final Logger LOG = getLogger(SegmentWriter.class);
+
+    /**
+     * The time in ms chunks are rejected after a write failed
+     */
+    static final long RETRY_INTERVAL = 5000;
+
+    private final Path directory;
+
+    private final String prefix;
+
+    private final String extension;
+
+    private final long maxSegmentSize;
+
+    private final long maxSegmentAge;
+
+    private final boolean compress;
+
+    private final boolean fsync;
+
+    private final BlockingQueue<byte[]> queue;
+
+    private final int bufferSize;
+
+    private final ByteBuffer buffer;
+
+    private final Thread thread;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong droppedChunks = new AtomicLong();
+
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+    private volatile boolean running = true;
+
+    private volatile IOException failure;
+
+    private volatile long failedAt;
+
+    private FileChannel channel;
+
+    private GZIPOutputStream compressed;
+
+    private long segmentSize;
+
+    private long segmentCreated;
+
+    private int sequence;
+
+    /**
+     * Creates a new writer and starts its writer thread.
+     * @param directory
+     *  the directory to store the segments in. It is created if it doesn't exist.
+     * @param prefix
+     *  the prefix of the segment file names
+     * @param extension
+     *  the file extension of the segments, without the '.gz' suffix for compressed segments
+     * @param maxSegmentSize
+     *  the maximum number of (uncompressed) bytes written to a segment before it is rolled
+     * @param maxSegmentAge
+     *  the maximum time in ms a segment is written to before it is rolled
+     * @param bufferSize
+     *  the size of the write buffer in bytes
+     * @param queueSize
+     *  the maximum number of chunks waiting to be written. Chunks appended to a full queue are dropped.
+     * @param compress
+     *  true if segments should be gzip compressed
+     * @param fsync
+     *  true if the segment should be synced to disk after each group of writes
+     * @throws IOException
+     *  if the directory could not be created
+     */
+    SegmentWriter(Path directory,
+                  String prefix,
+                  String extension,
+                  long maxSegmentSize,
+                  long maxSegmentAge,
+                  int bufferSize,
+                  int queueSize,
+                  boolean compress,
+                  boolean fsync) throws IOException {
+
+        this.directory = Files.createDirectories(directory);
+        this.prefix = prefix;
+        this.extension = compress ? extension + ".gz" : extension;
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxSegmentAge = maxSegmentAge;
+        this.compress = compress;
+        this.fsync = fsync;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.bufferSize = bufferSize;
+        this.buffer = compress ? null : ByteBuffer.allocateDirect(bufferSize);
+        this.thread = new Thread(this::run, "segment-writer-" + prefix);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enqueues a chunk of data for writing. The method never blocks.
+     * @param chunk
+     *  the data to write
+     * @return
+     *  true if the chunk was accepted, false if the queue was full or the last write failed and the chunk was
+     *  dropped
+     */
+    boolean append(byte[] chunk) {
+        if (failure != null && System.currentTimeMillis() - failedAt < RETRY_INTERVAL) {
+            droppedChunks.incrementAndGet();
+            return false;
+        }
+        if (queue.offer(chunk)) {
+            return true;
+        }
+        droppedChunks.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * The cause of the last failed write, if chunks are currently rejected because of it
+     * @return
+     *  the exception or null if the writer is operational
+     */
+    IOException getFailure() {
+        final IOException e = failure;
+        return e != null && System.currentTimeMillis() - failedAt < RETRY_INTERVAL ? e : null;
+    }
+
+    /**
+     * The total number of bytes written to segments
+     * @return
+     *  number of uncompressed bytes
+     */
+    long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * The number of chunks dropped because the queue was full
+     * @return
+     *  number of dropped chunks
+     */
+    long getDroppedChunks() {
+        return droppedChunks.get();
+    }
+
+    /**
+     * The number of chunks waiting to be written
+     * @return
+     *  number of queued chunks
+     */
+    int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the writer thread after all queued chunks have been written and closes the current segment. The method
+     * doesn't wait for the writer thread.
+     * @return
+     *  a future that is completed when the writer thread has finished
+     */
+    CompletableFuture<Void> closeAsync() {
+        running = false;
+        return closed;
+    }
+
+    /**
+     * Stops the writer thread after all queued chunks have been written and closes the current segment, waiting at
+     * most 30 seconds for the writer thread to finish.
+     */
+    @Override
+    public void close() {
+        closeAsync();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+
+        final List<byte[]> chunks = new ArrayList<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                final byte[] first = queue.poll(100, TimeUnit.MILLISECONDS);
+                try {
+                    if (first != null) {
+                        chunks.add(first);
+                        queue.drainTo(chunks);
+                        for (byte[] chunk : chunks) {
+                            write(chunk);
+                        }
+                        commit();
+                    } else if (channel != null && isExpired()) {
+                        closeSegment();
+                    }
+                } catch (IOException e) {
+                    fail(e, chunks.size());
+                }
+                chunks.clear();
+            }
+            closeSegment();
+        } catch (IOException e) {
+            LOG.error("Closing segment of {} failed", prefix, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed.complete(null);
+        }
+    }
+
+    /**
+     * Abandons the current segment after a failed write and drops all queued chunks, as they can not be written in
+     * order anymore.
+     * @param e
+     *  the cause of the failure
+     * @param lostChunks
+     *  the number of chunks of the failed write
+     */
+    private void fail(IOException e, int lostChunks) {
+
+        failedAt = System.currentTimeMillis();
+        failure = e;
+        final List<byte[]> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        final int dropped = lostChunks + queued.size();
+        droppedChunks.addAndGet(dropped);
+        LOG.error("Writing segment of {} failed, dropped {} chunks, retrying in {} ms",
+                  prefix, dropped, RETRY_INTERVAL, e);
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException closeFailure) {
+            LOG.debug("Closing failed segment of {} failed", prefix, closeFailure);
+        }
+        channel = null;
+        compressed = null;
+        if (buffer != null) {
+            buffer.clear();
+        }
+    }
+
+    private void write(byte[] chunk) throws IOException {
+
+        if (channel == null || segmentSize >= maxSegmentSize || isExpired()) {
+            closeSegment();
+            openSegment();
+        }
+        if (compress) {
+            compressed.write(chunk);
+        } else {
+            if (chunk.length > buffer.remaining()) {
+                flushBuffer();
+            }
+            if (chunk.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(chunk));
+            } else {
+                buffer.put(chunk);
+            }
+        }
+        segmentSize += chunk.length;
+        bytesWritten.addAndGet(chunk.length);
+    }
+
+    private boolean isExpired() {
+        return System.currentTimeMillis() - segmentCreated >= maxSegmentAge;
+    }
+
+    private void commit() throws IOException {
+
+        if (compress) {
+            compressed.flush();
+        } else {
+            flushBuffer();
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private void openSegment() throws IOException {
+
+        segmentCreated = System.currentTimeMillis();
+        segmentSize = 0;
+        final Path file = directory.resolve(String.format("%s-%d-%04d.%s",
+                                                          prefix,
+                                                          segmentCreated,
+                                                          sequence++ % 10000,
+                                                          extension));
+        LOG.debug("Opening segment {}", file);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (compress) {
+            compressed = new GZIPOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), bufferSize),
+                                              64 * 1024,
+                                              true);
+        }
+    }
+
+    private void closeSegment() throws IOException {
+
+        if (channel == null) {
+            return;
+        }
+        if (compress) {
+            compressed.finish();
+        }
+        commit();
+        if (compress) {
+            compressed.close();
+            compressed = null;
+        } else {
+            channel.close();
+        }
+        channel = null;
+    }
+}
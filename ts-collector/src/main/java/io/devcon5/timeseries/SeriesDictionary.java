@@ -0,0 +1,235 @@
+package io.devcon5.timeseries;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Dictionary of the series known to the collector. Each series, identified by its measurement name and set of tags,
+ * is assigned a dense int id on first use, so that a {@link ColumnarBatch} only has to keep that id per datapoint
+ * instead of the name and tags. The dictionary is shared by all verticles of the collector, so the ids can be passed
+ * along with the batches.
+ * <br>
+ * Series are never removed from a dictionary, so the shared dictionary is replaced by a new, empty generation once
+ * it holds 'maxSeries' series, which defaults to 100000 and can be set with the system property
+ * 'timeseries.dictionary.maxSeries'. Each batch keeps a reference to the dictionary its ids refer to, so a replaced
+ * generation remains valid for the batches created from it and is reclaimed once the last of these batches is gone.
+ * The limit is not enforced for a generation that is still in use, i.e. the series of a single large request body are
+ * all registered in the same generation.
+ */
+final class SeriesDictionary {
+
+    /**
+     * The default maximum number of series of a generation of the shared dictionary
+     */
+    static final int MAX_SERIES = Integer.getInteger("timeseries.dictionary.maxSeries", 100000);
+
+    private static final AtomicReference<SeriesDictionary> SHARED = new AtomicReference<>(new SeriesDictionary());
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final int maxSeries;
+
+    private volatile Series[] series = new Series[1024];
+
+    private volatile int size;
+
+    /**
+     * Creates a dictionary that is full after {@link #MAX_SERIES} series
+     */
+    SeriesDictionary() {
+        this(MAX_SERIES);
+    }
+
+    /**
+     * Creates a dictionary
+     * @param maxSeries
+     *  the number of series after which the dictionary is full
+     */
+    SeriesDictionary(int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * The current generation of the dictionary shared by all verticles of the collector. If the current generation
+     * is full, it is replaced by a new generation.
+     * @return
+     *  the shared dictionary
+     */
+    static SeriesDictionary shared() {
+        return next(SHARED);
+    }
+
+    /**
+     * Determines the current generation of a dictionary, replacing it with a new generation if it is full.
+     * @param generation
+     *  the reference to the current generation
+     * @return
+     *  the current generation, which is not full
+     */
+    static SeriesDictionary next(AtomicReference<SeriesDictionary> generation) {
+
+        final SeriesDictionary current = generation.get();
+        if (!current.isFull()) {
+            return current;
+        }
+        final SeriesDictionary next = new SeriesDictionary(current.maxSeries);
+        return generation.compareAndSet(current, next) ? next : generation.get();
+    }
+
+    /**
+     * Determines the id of a series, registering the series if it is not known yet.
+     * @param name
+     *  the name of the measurement
+     * @param tags
+     *  the tags of the series, may be null
+     * @return
+     *  the id of the series
+     */
+    int idOf(String name, Map<String, ?> tags) {
+
+        final String key = SeriesKey.of(name, tags);
+        final Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        return register(key, name, tags);
+    }
+
+    /**
+     * Determines the id of the series of a json datapoint with the properties name and tags.
+     * @param datapoint
+     *  the datapoint whose series id should be determined
+     * @return
+     *  the id of the series
+     */
+    int idOf(JsonObject datapoint) {
+
+        final JsonObject tags = datapoint.getJsonObject("tags");
+        return idOf(datapoint.getString("name"), tags == null ? null : tags.getMap());
+    }
+
+    /**
+     * Resolves a series id.
+     * @param id
+     *  the id of a series as returned by {@link #idOf(String, Map)}
+     * @return
+     *  the series with that id
+     */
+    Series get(int id) {
+        return series[id];
+    }
+
+    /**
+     * The number of series in this dictionary
+     * @return
+     *  the number of registered series
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Whether the dictionary holds its maximum number of series. Series can still be registered in a full dictionary,
+     * but it is not used for new batches anymore, see {@link #shared()}.
+     */
+    boolean isFull() {
+        return size >= maxSeries;
+    }
+
+    private synchronized int register(String key, String name, Map<String, ?> tags) {
+
+        final Integer existing = ids.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final Map<String, String> sortedTags = new TreeMap<>();
+        if (tags != null) {
+            tags.forEach((k, v) -> sortedTags.put(k, String.valueOf(v)));
+        }
+        final Series[] current = size < series.length ? series : Arrays.copyOf(series, series.length * 2);
+        final int id = size++;
+        current[id] = new Series(id, key, name, Collections.unmodifiableMap(sortedTags));
+        //publish the array before the id, so that any thread that obtained the id can resolve it
+        this.series = current;
+        ids.put(key, id);
+        return id;
+    }
+
+    /**
+     * A single series of the dictionary. Besides the name and tags, the series keeps its line protocol representation,
+     * so the line protocol encoders don't have to escape the same names and tags for every datapoint.
+     */
+    static final class Series {
+
+        private final int id;
+
+        private final String key;
+
+        private final String name;
+
+        private final Map<String, String> tags;
+
+        private final String line;
+
+        private final long hash;
+
+        private Series(int id, String key, String name, Map<String, String> tags) {
+            this.id = id;
+            this.key = key;
+            this.name = name;
+            this.tags = tags;
+            final StringBuilder line = new StringBuilder().append(LineProtocol.escape(name));
+            tags.forEach((k, v) -> line.append(',').append(LineProtocol.escape(k)).append('=')
+                                       .append(LineProtocol.escape(v)));
+            this.line = line.toString();
+            this.hash = ConsistentHashRing.hash(key);
+        }
+
+        int getId() {
+            return id;
+        }
+
+        /**
+         * The canonical key of this series, see {@link SeriesKey}
+         */
+        String getKey() {
+            return key;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * The tags of this series, sorted by their name
+         */
+        Map<String, String> getTags() {
+            return tags;
+        }
+
+        /**
+         * The escaped measurement name and tags in line protocol, i.e. 'cpu,host=web\ 01'
+         */
+        String getLine() {
+            return line;
+        }
+
+        /**
+         * The 64 bit hash of the series key, see {@link ConsistentHashRing#hash(String)}
+         */
+        long getHash() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+}
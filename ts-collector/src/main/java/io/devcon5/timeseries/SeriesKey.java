@@ -0,0 +1,67 @@
+package io.devcon5.timeseries;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Creates the canonical key of a series. A series is identified by the name of the measure and its set of tags. The
+ * key is the line-protocol representation of both, with the tags sorted by their name, i.e.
+ * <pre>
+ *     cpu,host=web01,region=eu
+ * </pre>
+ * So the key of a datapoint does not depend on the order its tags have been added. Backslashes, commas and equal
+ * signs in the name, tag names and values are escaped with a backslash, so that different series never have the
+ * same key, i.e. the measure 'cpu,host=a' without tags has the key 'cpu\,host\=a'.
+ */
+final class SeriesKey {
+
+    private SeriesKey() {}
+
+    /**
+     * Creates the series key of a json datapoint with the properties name and tags.
+     * @param datapoint
+     *  the datapoint whose series key should be determined
+     * @return
+     *  the canonical series key
+     */
+    static String of(JsonObject datapoint) {
+
+        final JsonObject tags = datapoint.getJsonObject("tags");
+        return of(datapoint.getString("name"), tags == null ? null : tags.getMap());
+    }
+
+    /**
+     * Creates the series key of a measure with the given tags.
+     * @param name
+     *  the name of the measure
+     * @param tags
+     *  the tags of the measure, may be null
+     * @return
+     *  the canonical series key
+     */
+    static String of(String name, Map<String, ?> tags) {
+
+        final StringBuilder key = new StringBuilder(64);
+        appendEscaped(key, String.valueOf(name));
+        if (tags != null && !tags.isEmpty()) {
+            new TreeMap<>(tags).forEach((k, v) -> {
+                appendEscaped(key.append(','), k);
+                appendEscaped(key.append('='), String.valueOf(v));
+            });
+        }
+        return key.toString();
+    }
+
+    private static void appendEscaped(StringBuilder key, String s) {
+
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '\\' || c == ',' || c == '=') {
+                key.append('\\');
+            }
+            key.append(c);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.devcon5.timeseries;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Bounded queue of datapoints for a single sink of the {@link FanOutVerticle}. The queue holds chunks of datapoints,
+ * i.e. json datapoints or columnar batches, as they have been received, and is bounded by the total number of
+ * datapoints of all chunks. When a chunk does not fit into the queue, the overflow policy decides whether the new
+ * chunk or the oldest chunks are dropped. The queue is not thread-safe, it is used on the event loop of the fan-out
+ * verticle only.
+ */
+final class SinkQueue {
+
+    /**
+     * What to drop when the queue is full
+     */
+    enum Overflow {
+        /**
+         * Drops the chunk that does not fit into the queue
+         */
+        DROP_NEWEST,
+        /**
+         * Drops the oldest chunks until the new chunk fits into the queue
+         */
+        DROP_OLDEST;
+
+        static Overflow of(String policy) {
+            switch (policy) {
+                case "dropNewest":
+                    return DROP_NEWEST;
+                case "dropOldest":
+                    return DROP_OLDEST;
+                default:
+                    throw new IllegalArgumentException("Unknown overflow policy " + policy);
+            }
+        }
+    }
+
+    private final Deque<Chunk> chunks = new ArrayDeque<>();
+
+    private final long capacity;
+
+    private final Overflow overflow;
+
+    private long size;
+
+    private long received;
+
+    private long enqueued;
+
+    private long dropped;
+
+    /**
+     * Creates a new queue
+     * @param capacity
+     *  the maximum number of datapoints in the queue
+     * @param overflow
+     *  the policy when the queue is full
+     */
+    SinkQueue(long capacity, Overflow overflow) {
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Adds a chunk of datapoints to the queue.
+     * @param chunk
+     *  the datapoints
+     * @param points
+     *  the number of datapoints in the chunk
+     * @param now
+     *  the current time in ms, used to determine the lag of the queue
+     * @return
+     *  true if the chunk was queued, false if it was dropped
+     */
+    boolean offer(Object chunk, int points, long now) {
+
+        received += points;
+        if (size + points > capacity) {
+            if (overflow == Overflow.DROP_NEWEST || points > capacity) {
+                dropped += points;
+                return false;
+            }
+            while (size + points > capacity) {
+                final Chunk oldest = chunks.poll();
+                size -= oldest.points;
+                dropped += oldest.points;
+            }
+        }
+        chunks.add(new Chunk(chunk, points, now));
+        size += points;
+        enqueued += points;
+        return true;
+    }
+
+    /**
+     * Removes the oldest chunks from the queue, up to the given number of datapoints. A chunk is never split, so
+     * if the oldest chunk alone exceeds the limit, only that chunk is removed.
+     * @param maxPoints
+     *  the maximum number of datapoints to remove
+     * @return
+     *  the removed chunks in the order they have been added
+     */
+    List<Object> poll(int maxPoints) {
+
+        final List<Object> result = new ArrayList<>();
+        int points = 0;
+        while (!chunks.isEmpty() && (points == 0 || points + chunks.peek().points <= maxPoints)) {
+            final Chunk chunk = chunks.poll();
+            points += chunk.points;
+            size -= chunk.points;
+            result.add(chunk.datapoints);
+        }
+        return result;
+    }
+
+    /**
+     * The number of queued datapoints
+     */
+    long size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * The lag of the queue, which is the time the oldest chunk has been waiting in the queue
+     * @param now
+     *  the current time in ms
+     * @return
+     *  the age of the oldest chunk in ms or 0 if the queue is empty
+     */
+    long lag(long now) {
+        return chunks.isEmpty() ? 0 : now - chunks.peek().received;
+    }
+
+    /**
+     * The total number of datapoints that have been offered to the queue, whether they have been queued or dropped
+     */
+    long getReceived() {
+        return received;
+    }
+
+    /**
+     * The total number of datapoints that have been queued
+     */
+    long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * The total number of datapoints that have been dropped due to overflow
+     */
+    long getDropped() {
+        return dropped;
+    }
+
+    private static final class Chunk {
+
+        private final Object datapoints;
+
+        private final int points;
+
+        private final long received;
+
+        private Chunk(Object datapoints, int points, long received) {
+            this.datapoints = datapoints;
+            this.points = points;
+            this.received = received;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.devcon5.timeseries;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Instead of counting tokens, the bucket keeps the theoretical time at which it would be
+ * full again (generic cell rate algorithm), so acquiring tokens is a single compare-and-set of one long value.
+ * Tokens may be acquired as long as that time is not further ahead than the burst capacity of the bucket.
+ * If the bucket is full, any number of tokens is granted, so requests larger than the capacity are not starved,
+ * but delay the subsequent requests accordingly.
+ * The rate may be changed at runtime.
+ */
+final class TokenBucket {
+
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    private volatile long nanosPerToken;
+
+    private volatile long capacityNanos;
+
+    /**
+     * Creates a new bucket that is initially full.
+     * @param tokensPerSecond
+     *  the rate at which the bucket refills
+     * @param burstSeconds
+     *  the capacity of the bucket, expressed as the number of seconds it takes to refill an empty bucket
+     */
+    TokenBucket(double tokensPerSecond, double burstSeconds) {
+        setRate(tokensPerSecond, burstSeconds);
+    }
+
+    /**
+     * Changes the rate and capacity of the bucket.
+     * @param tokensPerSecond
+     *  the rate at which the bucket refills
+     * @param burstSeconds
+     *  the capacity of the bucket, expressed as the number of seconds it takes to refill an empty bucket
+     */
+    void setRate(double tokensPerSecond, double burstSeconds) {
+        if (tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        this.nanosPerToken = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        this.capacityNanos = (long) (TimeUnit.SECONDS.toNanos(1) * burstSeconds);
+    }
+
+    /**
+     * Tries to take the specified number of tokens from the bucket.
+     * @param tokens
+     *  the number of tokens to take
+     * @return
+     *  true if the tokens were granted, false if the bucket doesn't contain enough tokens
+     */
+    boolean tryAcquire(long tokens) {
+
+        final long cost = tokens * nanosPerToken;
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = fullAt.get();
+            final long base = current - now > 0 ? current : now;
+            if (base != now && base + cost - now > capacityNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, base + cost)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns previously acquired tokens to the bucket, i.e. when a request is rejected by another bucket.
+     * @param tokens
+     *  the number of tokens to return
+     */
+    void release(long tokens) {
+        fullAt.addAndGet(-tokens * nanosPerToken);
+    }
+}
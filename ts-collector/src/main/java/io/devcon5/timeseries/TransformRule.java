@@ -0,0 +1,271 @@
+package io.devcon5.timeseries;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Pattern;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A single rule of the {@link TransformVerticle}. The rule is compiled once from its json definition into a predicate
+ * that decides whether the rule applies to a datapoint and an action that is applied to the matching datapoints.
+ * A rule definition has an optional condition and one action:
+ * <pre>
+ *     {
+ *      "name" : "fahrenheit",
+ *      "when" : { "measurement" : "sensor.*", "tags" : { "unit" : "C" } },
+ *      "action" : "convert",
+ *      ...action specific properties
+ *     }
+ * </pre>
+ * The measurement and tag conditions are regular expressions that must match the entire name or tag value. The
+ * supported actions are
+ * <ul>
+ *     <li><b>renameTag</b> - renames the tag 'from' to 'to'</li>
+ *     <li><b>dropTag</b> - removes the tag 'tag'</li>
+ *     <li><b>drop</b> - drops the datapoint</li>
+ *     <li><b>keep</b> - drops all datapoints that don't match the condition</li>
+ *     <li><b>derive</b> - calculates the field 'field' by applying the operation 'op' (add, subtract, multiply,
+ *     divide) to the 'args', which are either field names or numbers. If an argument field is missing, no value
+ *     is derived.</li>
+ *     <li><b>convert</b> - converts the value of 'field' by multiplying it with 'scale' and adding 'offset'. The
+ *     result replaces the value or is stored in the field 'to'</li>
+ *     <li><b>route</b> - sends the datapoint to the address 'to'. Unless 'continue' is true, the datapoint is not
+ *     processed any further</li>
+ * </ul>
+ */
+final class TransformRule {
+
+    private final String name;
+
+    private final Predicate<JsonObject> condition;
+
+    private final Function<JsonObject, JsonObject> action;
+
+    private long hits;
+
+    private TransformRule(String name, Predicate<JsonObject> condition, Function<JsonObject, JsonObject> action) {
+        this.name = name;
+        this.condition = condition;
+        this.action = action;
+    }
+
+    /**
+     * Compiles a rule from its definition.
+     * @param definition
+     *  the json definition of the rule
+     * @param router
+     *  consumer that is invoked with the target address and the datapoint for each datapoint to be routed
+     * @return
+     *  the compiled rule
+     */
+    static TransformRule compile(JsonObject definition, BiConsumer<String, JsonObject> router) {
+
+        final String action = definition.getString("action");
+        if (action == null) {
+            throw new IllegalArgumentException("No action defined in rule " + definition.encode());
+        }
+        final String name = definition.getString("name", action);
+        final Predicate<JsonObject> condition = condition(definition.getJsonObject("when", new JsonObject()));
+        switch (action) {
+            case "renameTag":
+                return new TransformRule(name, condition, renameTag(required(definition, "from"),
+                                                                     required(definition, "to")));
+            case "dropTag":
+                return new TransformRule(name, condition, dropTag(required(definition, "tag")));
+            case "drop":
+                return new TransformRule(name, condition, dp -> null);
+            case "keep":
+                return new TransformRule(name, condition.negate(), dp -> null);
+            case "derive":
+                return new TransformRule(name, condition, derive(required(definition, "field"),
+                                                                  operator(required(definition, "op")),
+                                                                  definition.getJsonArray("args", new JsonArray())));
+            case "convert":
+                return new TransformRule(name, condition, convert(required(definition, "field"),
+                                                                   definition.getString("to"),
+                                                                   definition.getDouble("scale", 1.0),
+                                                                   definition.getDouble("offset", 0.0)));
+            case "route":
+                return new TransformRule(name, condition, route(required(definition, "to"),
+                                                                 definition.getBoolean("continue", false),
+                                                                 router));
+            default:
+                throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    /**
+     * Applies this rule to a datapoint
+     * @param datapoint
+     *  the datapoint to transform
+     * @return
+     *  the transformed datapoint or null if the datapoint should not be processed any further
+     */
+    JsonObject apply(JsonObject datapoint) {
+
+        if (condition.test(datapoint)) {
+            hits++;
+            return action.apply(datapoint);
+        }
+        return datapoint;
+    }
+
+    /**
+     * The name of the rule
+     * @return
+     *  the name as defined in the configuration or the name of the action
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Number of datapoints this rule has been applied to
+     * @return
+     *  the number of matching datapoints
+     */
+    long getHits() {
+        return hits;
+    }
+
+    private static Predicate<JsonObject> condition(JsonObject when) {
+
+        final List<Predicate<JsonObject>> conditions = new ArrayList<>();
+        if (when.containsKey("measurement")) {
+            final Pattern measurement = Pattern.compile(when.getString("measurement"));
+            conditions.add(dp -> {
+                final String name = dp.getString("name");
+                return name != null && measurement.matcher(name).matches();
+            });
+        }
+        for (Map.Entry<String, Object> tag : when.getJsonObject("tags", new JsonObject())) {
+            final String tagName = tag.getKey();
+            final Pattern tagValue = Pattern.compile((String) tag.getValue());
+            conditions.add(dp -> {
+                final String value = tags(dp).getString(tagName);
+                return value != null && tagValue.matcher(value).matches();
+            });
+        }
+        return conditions.stream().reduce(Predicate::and).orElse(dp -> true);
+    }
+
+    private static Function<JsonObject, JsonObject> renameTag(String from, String to) {
+
+        return dp -> {
+            final JsonObject tags = tags(dp);
+            if (tags.containsKey(from)) {
+                tags.put(to, tags.remove(from));
+            }
+            return dp;
+        };
+    }
+
+    private static Function<JsonObject, JsonObject> dropTag(String tag) {
+
+        return dp -> {
+            tags(dp).remove(tag);
+            return dp;
+        };
+    }
+
+    private static Function<JsonObject, JsonObject> derive(String field, DoubleBinaryOperator op, JsonArray args) {
+
+        final List<ToDoubleFunction<JsonObject>> operands = new ArrayList<>();
+        for (Object arg : args) {
+            if (arg instanceof Number) {
+                final double constant = ((Number) arg).doubleValue();
+                operands.add(values -> constant);
+            } else {
+                final String argField = (String) arg;
+                operands.add(values -> {
+                    final Object value = values.getValue(argField);
+                    return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+                });
+            }
+        }
+        if (operands.isEmpty()) {
+            throw new IllegalArgumentException("No arguments defined to derive " + field);
+        }
+        return dp -> {
+            final JsonObject values = dp.getJsonObject("values");
+            double result = operands.get(0).applyAsDouble(values);
+            for (int i = 1; i < operands.size(); i++) {
+                result = op.applyAsDouble(result, operands.get(i).applyAsDouble(values));
+            }
+            if (!Double.isNaN(result) && !Double.isInfinite(result)) {
+                values.put(field, result);
+            }
+            return dp;
+        };
+    }
+
+    private static DoubleBinaryOperator operator(String op) {
+
+        switch (op) {
+            case "add":
+                return (a, b) -> a + b;
+            case "subtract":
+                return (a, b) -> a - b;
+            case "multiply":
+                return (a, b) -> a * b;
+            case "divide":
+                return (a, b) -> a / b;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    private static Function<JsonObject, JsonObject> convert(String field, String to, double scale, double offset) {
+
+        final String target = to != null ? to : field;
+        return dp -> {
+            final JsonObject values = dp.getJsonObject("values");
+            final Object value = values.getValue(field);
+            if (value instanceof Number) {
+                values.put(target, ((Number) value).doubleValue() * scale + offset);
+            }
+            return dp;
+        };
+    }
+
+    private static Function<JsonObject, JsonObject> route(String address,
+                                                          boolean proceed,
+                                                          BiConsumer<String, JsonObject> router) {
+
+        return dp -> {
+            if (proceed) {
+                router.accept(address, dp.copy());
+                return dp;
+            }
+            router.accept(address, dp);
+            return null;
+        };
+    }
+
+    private static JsonObject tags(JsonObject datapoint) {
+
+        JsonObject tags = datapoint.getJsonObject("tags");
+        if (tags == null) {
+            tags = new JsonObject();
+            datapoint.put("tags", tags);
+        }
+        return tags;
+    }
+
+    private static String required(JsonObject definition, String property) {
+
+        final String value = definition.getString(property);
+        if (value == null) {
+            throw new IllegalArgumentException("Property '" + property + "' missing in rule " + definition.encode());
+        }
+        return value;
+    }
+}
@@ -0,0 +1,191 @@
+package io.devcon5.timeseries;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.rxjava.core.AbstractVerticle;
+import io.vertx.rxjava.core.RxHelper;
+import org.slf4j.Logger;
+import rx.Observable;
+
+/**
+ * Verticle that applies a list of declarative transformation and routing rules to the datapoints received on its
+ * address and forwards the transformed datapoints to the output address.
+ * <pre>
+ *     {
+ *      "address" : "/transform/test",
+ *      "output" : "/store/test",
+ *      "maxRowLimit" : 1000,
+ *      "maxDelay" : 100,
+ *      "reportInterval" : 60000,
+ *      "rules" : [
+ *          { "action" : "dropTag", "tag" : "pid" },
+ *          { "action" : "drop", "when" : { "measurement" : "debug\\..*" } },
+ *          ...
+ *      ]
+ *     }
+ * </pre>
+ * The rules are compiled once when the verticle is deployed, see {@link TransformRule} for the supported rules. The
+ * verticle accepts json datapoints, json arrays of datapoints as well as {@link ColumnarBatch}es, which are converted
+ * into json datapoints. A datapoint a rule fails on, i.e. because it is malformed, is dropped and counted as failed,
+ * other messages and datapoints are processed as usual. The
+ * datapoints are collected into batches of up to 'maxRowLimit' datapoints or 'maxDelay' ms and each rule is applied
+ * to the entire batch in the order the rules are defined. A rule may drop a datapoint or route it to another address,
+ * in which case the subsequent rules are not applied to that datapoint.
+ * <br>
+ * The throughput and the number of hits of each rule are logged every 'reportInterval' ms and can be requested
+ * via the '/stats{address}' address, i.e. using http GET /stats/transform/test.
+ */
+public class TransformVerticle extends AbstractVerticle {
+
+    private static final Logger LOG = getLogger(TransformVerticle.class);
+
+    private final List<TransformRule> rules = new ArrayList<>();
+
+    private String address;
+
+    private String output;
+
+    private long received;
+
+    private long forwarded;
+
+    private long failed;
+
+    private long processingNanos;
+
+    private long statsStarted;
+
+    @Override
+    public void start() throws Exception {
+
+        final JsonObject config = config();
+        this.address = config.getString("address");
+        this.output = config.getString("output");
+        if (address == null || output == null) {
+            throw new IllegalArgumentException("Transformation requires an address and an output address");
+        }
+        for (Object rule : config.getJsonArray("rules", new JsonArray())) {
+            JsonObject definition = (JsonObject) rule;
+            if (!definition.containsKey("name")) {
+                definition = definition.copy().put("name", rules.size() + "-" + definition.getString("action"));
+            }
+            rules.add(TransformRule.compile(definition, (to, dp) -> vertx.eventBus().publish(to, dp)));
+        }
+        this.statsStarted = System.currentTimeMillis();
+
+        vertx.eventBus().<Object>consumer(address).bodyStream()
+                                                      .toObservable()
+                                                      .flatMap(this::datapoints)
+                                                      .buffer(config.getLong("maxDelay", 100L),
+                                                              TimeUnit.MILLISECONDS,
+                                                              config.getInteger("maxRowLimit", 1000),
+                                                              RxHelper.scheduler(vertx))
+                                                      .filter(batch -> !batch.isEmpty())
+                                                      .subscribe(this::process,
+                                                                 e -> LOG.error("Transformation of {} stopped",
+                                                                                address,
+                                                                                e));
+        vertx.eventBus().<JsonObject>consumer("/stats" + address, msg -> msg.reply(stats()));
+        vertx.setPeriodic(config.getLong("reportInterval", 60000L), id -> LOG.info("{}", stats().encode()));
+        LOG.info("Transforming {} to {} using {} rules", address, output, rules.size());
+    }
+
+    /**
+     * Converts a received message body into json datapoints. The rules operate on json datapoints, so the datapoints
+     * of a {@link ColumnarBatch} are converted into separate json datapoints.
+     * @param body
+     *  a json datapoint, a json array of datapoints or a columnar batch
+     * @return
+     *  the json datapoints of the body, bodies and array elements of other types are dropped
+     */
+    private Observable<JsonObject> datapoints(Object body) {
+
+        if (body instanceof ColumnarBatch) {
+            final ColumnarBatch batch = (ColumnarBatch) body;
+            final List<JsonObject> dps = new ArrayList<>(batch.size());
+            for (int row = 0; row < batch.size(); row++) {
+                dps.add(batch.toJson(row));
+            }
+            return Observable.from(dps);
+        }
+        if (body instanceof JsonArray) {
+            final JsonArray array = (JsonArray) body;
+            final List<JsonObject> dps = new ArrayList<>(array.size());
+            for (Object dp : array) {
+                if (dp instanceof JsonObject) {
+                    dps.add((JsonObject) dp);
+                } else {
+                    dropInvalid(dp);
+                }
+            }
+            return Observable.from(dps);
+        }
+        if (body instanceof JsonObject) {
+            return Observable.just((JsonObject) body);
+        }
+        dropInvalid(body);
+        return Observable.empty();
+    }
+
+    private void dropInvalid(Object datapoint) {
+        failed++;
+        LOG.warn("Dropping invalid datapoint {}", datapoint);
+    }
+
+    /**
+     * Applies all rules to a batch of datapoints and forwards the remaining datapoints to the output address.
+     * @param batch
+     *  the datapoints to process
+     */
+    void process(List<JsonObject> batch) {
+
+        final long start = System.nanoTime();
+        final JsonObject[] dps = batch.toArray(new JsonObject[batch.size()]);
+        for (TransformRule rule : rules) {
+            for (int i = 0; i < dps.length; i++) {
+                if (dps[i] != null) {
+                    try {
+                        dps[i] = rule.apply(dps[i]);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Rule {} failed on {}, dropping datapoint", rule.getName(), dps[i], e);
+                        dps[i] = null;
+                        failed++;
+                    }
+                }
+            }
+        }
+        for (JsonObject dp : dps) {
+            if (dp != null) {
+                vertx.eventBus().publish(output, dp);
+                forwarded++;
+            }
+        }
+        received += dps.length;
+        processingNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Creates the statistics of this transformation
+     * @return
+     *  the number of received, forwarded and failed datapoints, the throughput and the hits per rule
+     */
+    JsonObject stats() {
+
+        final long elapsed = Math.max(1, System.currentTimeMillis() - statsStarted);
+        final JsonObject hits = new JsonObject();
+        rules.forEach(rule -> hits.put(rule.getName(), rule.getHits()));
+        return new JsonObject().put("address", address)
+                               .put("received", received)
+                               .put("forwarded", forwarded)
+                               .put("failed", failed)
+                               .put("pointsPerSecond", received * 1000 / elapsed)
+                               .put("processingNanosPerPoint", received == 0 ? 0 : processingNanos / received)
+                               .put("rules", hits);
+    }
+}
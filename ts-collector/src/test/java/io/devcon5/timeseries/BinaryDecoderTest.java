@@ -0,0 +1,135 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BinaryDecoderTest {
+
+    private final SeriesDictionary dictionary = new SeriesDictionary();
+
+    @Test
+    public void decode_datapoints() throws Exception {
+
+        final Body body = new Body();
+        //cpu,host=web01 load=12i at 1000
+        body.varint(2000).newString("cpu").varint(1).newString("host").newString("web01")
+            .varint(1).newString("load").varint(1).varint(24);
+        //cpu,host=web02 temp=36.6 at 1500, all but 'web02' and 'temp' are references
+        body.varint(1000).varint(1).varint(1).varint(2).newString("web02")
+            .varint(1).newString("temp").varint(0).float64(36.6);
+        //cpu,host=web01 load=-3i at 1400
+        body.varint(199).varint(1).varint(1).varint(2).varint(3).varint(1).varint(4).varint(1).varint(5);
+
+        final ColumnarBatch batch = BinaryDecoder.decode(body.bytes(), dictionary);
+
+        assertEquals(3, batch.size());
+        assertEquals(2, dictionary.size());
+        assertEquals("cpu,host=web01", batch.getSeries(0).getKey());
+        assertEquals("cpu,host=web02", batch.getSeries(1).getKey());
+        assertEquals(batch.getSeriesId(0), batch.getSeriesId(2));
+        assertEquals(1000L, batch.getTimestamp(0));
+        assertEquals(1500L, batch.getTimestamp(1));
+        assertEquals(1400L, batch.getTimestamp(2));
+        assertEquals("load", batch.getFieldName(0));
+        assertEquals(12.0, batch.getValue(0, 0), 0.0);
+        assertEquals(36.6, batch.getValue(1, 1), 0.0);
+        assertEquals(-3.0, batch.getValue(0, 2), 0.0);
+        assertTrue(Double.isNaN(batch.getValue(1, 0)));
+    }
+
+    @Test
+    public void decode_headerOnly_emptyBatch() throws Exception {
+
+        assertEquals(0, BinaryDecoder.decode(new Body().bytes(), dictionary).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_json_fails() throws Exception {
+
+        BinaryDecoder.decode("[{\"name\":\"cpu\"}]".getBytes(StandardCharsets.UTF_8), dictionary);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_truncated_fails() throws Exception {
+
+        final Body body = new Body();
+        body.varint(2000).newString("cpu").varint(0).varint(1).newString("load").varint(0);
+
+        BinaryDecoder.decode(body.bytes(), dictionary);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_undefinedString_fails() throws Exception {
+
+        final Body body = new Body();
+        body.varint(2000).varint(1);
+
+        BinaryDecoder.decode(body.bytes(), dictionary);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_noValues_fails() throws Exception {
+
+        final Body body = new Body();
+        body.varint(2000).newString("cpu").varint(0).varint(0);
+
+        BinaryDecoder.decode(body.bytes(), dictionary);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_nan_fails() throws Exception {
+
+        final Body body = new Body();
+        body.varint(2000).newString("cpu").varint(0).varint(1).newString("load").varint(0).float64(Double.NaN);
+
+        BinaryDecoder.decode(body.bytes(), dictionary);
+    }
+
+    /**
+     * Writer of bodies in binary format
+     */
+    private static class Body {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Body() {
+            out.write('T');
+            out.write('S');
+            out.write(1);
+        }
+
+        Body varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Body newString(String s) {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(0).varint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Body float64(double value) {
+            out.write(ByteBuffer.allocate(8).putDouble(value).array(), 0, 8);
+            return this;
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+}
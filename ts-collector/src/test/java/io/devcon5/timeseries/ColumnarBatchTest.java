@@ -0,0 +1,94 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ColumnarBatchTest {
+
+    private final SeriesDictionary dictionary = new SeriesDictionary();
+
+    @Test
+    public void add_jsonDatapoints() throws Exception {
+
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 1);
+        assertTrue(builder.add(datapoint("cpu", "web01", 1000L).put("values", new JsonObject().put("load", 12))));
+        assertTrue(builder.add(datapoint("cpu", "web02", 2000L).put("values", new JsonObject().put("temp", 36.6))));
+        assertTrue(builder.add(datapoint("cpu", "web01", 3000L).put("values", new JsonObject().put("load", 13))));
+
+        final ColumnarBatch batch = builder.build();
+
+        assertEquals(3, batch.size());
+        assertEquals(2, batch.getFieldCount());
+        assertEquals(2, dictionary.size());
+        assertEquals(batch.getSeriesId(0), batch.getSeriesId(2));
+        assertEquals("cpu,host=web02", batch.getSeries(1).getKey());
+        assertEquals(2000L, batch.getTimestamp(1));
+        assertEquals(12.0, batch.getValue(0, 0), 0.0);
+        assertTrue(Double.isNaN(batch.getValue(1, 0)));
+        assertTrue(Double.isNaN(batch.getValue(0, 1)));
+        assertEquals(36.6, batch.getValue(1, 1), 0.0);
+    }
+
+    @Test
+    public void add_nonNumericValue_rejected() throws Exception {
+
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 10);
+
+        assertFalse(builder.add(datapoint("cpu", "web01", 1000L).put("values", new JsonObject().put("state", "up"))));
+        assertFalse(builder.add(new JsonObject().put("name", "cpu").put("values", new JsonObject().put("load", 1))));
+        assertEquals(0, builder.size());
+    }
+
+    @Test
+    public void toJson_reversesAdd() throws Exception {
+
+        final JsonObject dp = datapoint("cpu", "web 01", 1000L).put("values", new JsonObject().put("load", 12.5));
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 10);
+        builder.add(dp);
+
+        assertEquals(dp, builder.build().toJson(0));
+    }
+
+    @Test
+    public void idOf_sameSeries_sameId() throws Exception {
+
+        final int id = dictionary.idOf(datapoint("cpu", "web01", 1000L));
+
+        assertEquals(id, dictionary.idOf(datapoint("cpu", "web01", 2000L)));
+        assertSame(dictionary.get(id), dictionary.get(dictionary.idOf("cpu", new JsonObject().put("host", "web01")
+                                                                                              .getMap())));
+        assertEquals("cpu,host=web01", dictionary.get(id).getLine());
+    }
+
+    @Test
+    public void lines_sameAsJsonFormat() throws Exception {
+
+        final JsonObject dp1 = datapoint("cpu", "web 01", 1000L).put("values", new JsonObject().put("load", 12));
+        final JsonObject dp2 = datapoint("cpu", "web02", 2000L).put("values", new JsonObject().put("temp", 36.6)
+                                                                                              .put("load", 1));
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 10);
+        builder.add(dp1);
+        builder.add(dp2);
+        final ColumnarBatch batch = builder.build();
+
+        final String[] lines = LineProtocol.lines(batch);
+
+        assertEquals(LineProtocol.format(dp1), lines[0]);
+        assertEquals("cpu,host=web02 load=1,temp=36.6 2000", lines[1]);
+        assertEquals(lines[0] + "\n" + lines[1] + "\n", LineProtocol.format(batch, new StringBuilder()).toString());
+    }
+
+    private static JsonObject datapoint(String name, String host, long timestamp) {
+        return new JsonObject().put("name", name)
+                               .put("tags", new JsonObject().put("host", host))
+                               .put("timestamp", timestamp);
+    }
+}
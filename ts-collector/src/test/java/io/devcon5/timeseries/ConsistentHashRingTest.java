@@ -0,0 +1,98 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void walk_containsAllMembersOnce() throws Exception {
+
+        final ConsistentHashRing<String> ring = ring("a", "b", "c");
+
+        final List<String> walk = ring.walk("cpu,host=web01");
+
+        assertEquals(3, walk.size());
+        assertEquals(3, new HashSet<>(walk).size());
+        assertEquals(ring.get("cpu,host=web01"), walk.get(0));
+    }
+
+    @Test
+    public void walk_position_sameListAsWalkOfKey() throws Exception {
+
+        final ConsistentHashRing<String> ring = ring("a", "b", "c");
+
+        assertSame(ring.walk("cpu,host=web01"), ring.walk(ConsistentHashRing.hash("cpu,host=web01")));
+        assertTrue(new ConsistentHashRing<String>(4).walk(42L).isEmpty());
+    }
+
+    @Test
+    public void get_keysAreEvenlyDistributed() throws Exception {
+
+        final ConsistentHashRing<String> ring = ring("a", "b", "c", "d");
+
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.get("series" + i), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size());
+        counts.values().forEach(c -> assertTrue("unbalanced " + counts, c > KEYS / 8 && c < KEYS / 2));
+    }
+
+    @Test
+    public void add_remapsOnlyAFractionOfKeys() throws Exception {
+
+        final ConsistentHashRing<String> ring = ring("a", "b", "c", "d");
+        final Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            before.put("series" + i, ring.get("series" + i));
+        }
+
+        ring.add("e");
+
+        int moved = 0;
+        for (Map.Entry<String, String> e : before.entrySet()) {
+            final String owner = ring.get(e.getKey());
+            if (!owner.equals(e.getValue())) {
+                assertEquals("keys may only move to the new member", "e", owner);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > KEYS / 10 && moved < KEYS * 3 / 10);
+    }
+
+    @Test
+    public void remove_keysMoveToNextMember() throws Exception {
+
+        final ConsistentHashRing<String> ring = ring("a", "b", "c");
+        final List<String> walk = ring.walk("cpu,host=web01");
+
+        ring.remove(walk.get(0));
+
+        assertEquals(2, ring.size());
+        assertEquals(walk.get(1), ring.get("cpu,host=web01"));
+    }
+
+    private static ConsistentHashRing<String> ring(String... members) {
+
+        final ConsistentHashRing<String> ring = new ConsistentHashRing<>(128);
+        for (String member : members) {
+            ring.add(member);
+        }
+        return ring;
+    }
+}
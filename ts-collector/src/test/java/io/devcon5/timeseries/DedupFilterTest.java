@@ -0,0 +1,130 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class DedupFilterTest {
+
+    @Test
+    public void isDuplicate_sameDatapoint() throws Exception {
+
+        final DedupFilter filter = new DedupFilter(1024, 4, 1000, 0);
+
+        assertFalse(filter.isDuplicate(DedupFilter.hash(datapoint("web01", 1000L, 1)), 0));
+        assertTrue(filter.isDuplicate(DedupFilter.hash(datapoint("web01", 1000L, 1)), 10));
+        assertFalse(filter.isDuplicate(DedupFilter.hash(datapoint("web01", 1000L, 2)), 20));
+        assertFalse(filter.isDuplicate(DedupFilter.hash(datapoint("web01", 2000L, 1)), 30));
+        assertFalse(filter.isDuplicate(DedupFilter.hash(datapoint("web02", 1000L, 1)), 40));
+
+        assertEquals(5, filter.getChecked());
+        assertEquals(1, filter.getDuplicates());
+        assertEquals(4, filter.getStored());
+    }
+
+    @Test
+    public void hash_independentOfFieldOrder() throws Exception {
+
+        final JsonObject dp1 = datapoint("web01", 1000L, 1);
+        dp1.getJsonObject("values").put("temp", 36.6);
+        final JsonObject dp2 = datapoint("web01", 1000L, 1);
+        dp2.put("values", new JsonObject().put("temp", 36.6).put("load", 1));
+
+        assertEquals(DedupFilter.hash(dp1), DedupFilter.hash(dp2));
+    }
+
+    @Test
+    public void hash_columnarSameAsJson() throws Exception {
+
+        final JsonObject dp = datapoint("web01", 1000L, 1);
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(new SeriesDictionary(), 1);
+        builder.add(dp);
+
+        assertEquals(DedupFilter.hash(dp), DedupFilter.hash(builder.build(), 0));
+    }
+
+    @Test
+    public void isDuplicate_afterWindow_forgotten() throws Exception {
+
+        final DedupFilter filter = new DedupFilter(1024, 4, 1000, 0);
+        final long hash = DedupFilter.hash(datapoint("web01", 1000L, 1));
+        filter.isDuplicate(hash, 0);
+
+        assertTrue(filter.isDuplicate(hash, 750));
+        filter.isDuplicate(0, 1000);
+        assertFalse(filter.isDuplicate(hash, 1000));
+    }
+
+    @Test
+    public void isDuplicate_tableFull_forcedRotation() throws Exception {
+
+        final DedupFilter filter = new DedupFilter(16, 2, 1000, 0);
+        for (int i = 0; i < 20; i++) {
+            filter.isDuplicate(DedupFilter.hash(datapoint("web01", i, 1)), 0);
+        }
+
+        //8 fingerprints fit into each table, the first table is cleared again for the last 4
+        assertEquals(2, filter.getForcedRotations());
+        assertEquals(12, filter.getStored());
+        assertEquals(2 * 16 * 4, filter.getMemory());
+    }
+
+    @Test
+    public void isDuplicate_millionsOfDistinctDatapoints_fewFalsePositives() throws Exception {
+
+        final DedupFilter filter = new DedupFilter(1 << 22, 4, 60000, 0);
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(new SeriesDictionary(), 1000);
+        for (int host = 0; host < 1000; host++) {
+            builder.add(datapoint("web" + host, 0, 1));
+        }
+        final ColumnarBatch series = builder.build();
+        for (int t = 0; t < 3000; t++) {
+            for (int row = 0; row < series.size(); row++) {
+                final long hash = DedupFilter.hash(series, row) ^ t * 0x9e3779b97f4a7c15L;
+                filter.isDuplicate(hash, t * 10);
+            }
+        }
+
+        assertEquals(3000000, filter.getChecked());
+        assertEquals(0, filter.getForcedRotations());
+        //less than 0.01 false positives are expected
+        assertTrue(filter.getExpectedFalsePositives() < 0.01);
+        assertEquals(0, filter.getDuplicates());
+        assertTrue(filter.getFalsePositiveRate() < 1e-9);
+    }
+
+    @Test
+    public void select_keepsRows() throws Exception {
+
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(new SeriesDictionary(), 3);
+        builder.add(datapoint("web01", 1000L, 1));
+        builder.add(datapoint("web02", 2000L, 2));
+        builder.add(datapoint("web03", 3000L, 3));
+        final ColumnarBatch batch = builder.build();
+        final BitSet rows = new BitSet();
+        rows.set(0);
+        rows.set(2);
+
+        final ColumnarBatch selected = batch.select(rows);
+
+        assertEquals(2, selected.size());
+        assertEquals(3000L, selected.getTimestamp(1));
+        assertEquals(3.0, selected.getValue(0, 1), 0.0);
+        assertEquals("cpu,host=web03", selected.getSeries(1).getKey());
+    }
+
+    private static JsonObject datapoint(String host, long timestamp, int load) {
+        return new JsonObject().put("name", "cpu")
+                               .put("tags", new JsonObject().put("host", host))
+                               .put("values", new JsonObject().put("load", load))
+                               .put("timestamp", timestamp);
+    }
+}
@@ -0,0 +1,73 @@
+package io.devcon5.timeseries;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the deduplication verticle with json arrays of datapoints as sent by the fan-out verticle.
+ */
+@RunWith(VertxUnitRunner.class)
+public class DedupVerticleTest {
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+
+        vertx = Vertx.vertx();
+        final JsonObject config = new JsonObject().put("address", "/dedup/test")
+                                                  .put("output", "/store/test")
+                                                  .put("capacity", 1024);
+        vertx.deployVerticle(DedupVerticle.class.getName(),
+                             new DeploymentOptions().setConfig(config),
+                             context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void process_jsonArray_duplicatesDroppedAndAcknowledged(TestContext context) throws Exception {
+
+        final Async forwarded = context.async(5);
+        vertx.eventBus().<JsonArray>consumer("/store/test", msg -> {
+            for (int i = 0; i < msg.body().size(); i++) {
+                forwarded.countDown();
+            }
+        });
+        final JsonArray first = new JsonArray().add(datapoint(1000L, 1)).add(datapoint(2000L, 2));
+        final JsonArray second = new JsonArray().add(datapoint(2000L, 2))
+                                                .add(datapoint(3000L, 3))
+                                                .add(datapoint(4000L, 4))
+                                                .add(datapoint(5000L, 5));
+
+        vertx.eventBus().send("/dedup/test", first, context.asyncAssertSuccess(ack -> {
+            vertx.eventBus().send("/dedup/test", second, context.asyncAssertSuccess());
+        }));
+        forwarded.awaitSuccess(5000);
+
+        vertx.eventBus().<JsonObject>send("/stats/dedup/test", new JsonObject(), context.asyncAssertSuccess(reply -> {
+            context.assertEquals(6L, reply.body().getLong("received"));
+            context.assertEquals(1L, reply.body().getLong("dropped"));
+        }));
+    }
+
+    private static JsonObject datapoint(long timestamp, int load) {
+        return new JsonObject().put("name", "cpu")
+                               .put("tags", new JsonObject().put("host", "web01"))
+                               .put("values", new JsonObject().put("load", load))
+                               .put("timestamp", timestamp);
+    }
+}
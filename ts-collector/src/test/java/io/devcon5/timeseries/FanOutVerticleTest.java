@@ -0,0 +1,148 @@
+package io.devcon5.timeseries;
+
+import java.util.function.Consumer;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the fan-out verticle with a sink that acknowledges each batch and a sink that never does.
+ */
+@RunWith(VertxUnitRunner.class)
+public class FanOutVerticleTest {
+
+    private static final int DATAPOINTS = 50;
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+
+        vertx = Vertx.vertx();
+        final JsonObject config = new JsonObject().put("address", "/store/fanout")
+                                                  .put("sinks", new JsonArray().add(sink("fast", 1000))
+                                                                               .add(sink("stuck", 5)));
+        vertx.deployVerticle(FanOutVerticle.class.getName(),
+                             new DeploymentOptions().setConfig(config),
+                             context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void stuckSink_doesNotDelayOtherSinks(TestContext context) throws Exception {
+
+        final Async fast = context.async(DATAPOINTS);
+        vertx.eventBus().<ColumnarBatch>consumer("/fast", msg -> {
+            for (int i = 0; i < msg.body().size(); i++) {
+                fast.countDown();
+            }
+            msg.reply(new JsonObject());
+        });
+        vertx.eventBus().<ColumnarBatch>consumer("/stuck", msg -> {
+            //never acknowledged
+        });
+
+        for (int i = 0; i < DATAPOINTS; i++) {
+            vertx.eventBus().publish("/store/fanout", new JsonObject().put("name", "cpu")
+                                                                      .put("timestamp", (long) i)
+                                                                      .put("values", new JsonObject().put("load", i)));
+        }
+        fast.awaitSuccess(5000);
+
+        final Async stats = context.async();
+        //the last batch is counted as sent once its acknowledgement has been received
+        awaitSent(context, "fast", DATAPOINTS, sinks -> {
+            context.assertEquals((long) DATAPOINTS, sinks.getJsonObject("fast").getLong("sent"));
+            context.assertEquals(0L, sinks.getJsonObject("fast").getLong("dropped"));
+            final JsonObject stuckStats = sinks.getJsonObject("stuck");
+            context.assertEquals((long) DATAPOINTS, stuckStats.getLong("received"));
+            context.assertEquals(0L, stuckStats.getLong("sent"));
+            context.assertTrue(stuckStats.getLong("queued") <= 5);
+            context.assertTrue(stuckStats.getInteger("inFlight") <= 1);
+            //at most one batch delivered and one queue full kept, the rest is dropped
+            context.assertTrue(stuckStats.getLong("dropped") >= DATAPOINTS - 10);
+            stats.complete();
+        });
+    }
+
+    @Test
+    public void receive_jsonArrays_countedAndDeliveredPerDatapoint(TestContext context) throws Exception {
+
+        final Async fast = context.async(DATAPOINTS);
+        vertx.eventBus().<ColumnarBatch>consumer("/fast", msg -> {
+            for (int i = 0; i < msg.body().size(); i++) {
+                fast.countDown();
+            }
+            msg.reply(new JsonObject());
+        });
+
+        for (int i = 0; i < DATAPOINTS; i += 10) {
+            final JsonArray datapoints = new JsonArray();
+            for (int j = i; j < i + 10; j++) {
+                datapoints.add(new JsonObject().put("name", "cpu")
+                                               .put("timestamp", (long) j)
+                                               .put("values", new JsonObject().put("load", j)));
+            }
+            vertx.eventBus().publish("/store/fanout", datapoints);
+        }
+        fast.awaitSuccess(5000);
+
+        vertx.eventBus().<JsonObject>send("/stats/store/fanout", new JsonObject(), context.asyncAssertSuccess(reply -> {
+            final JsonObject sinks = reply.body().getJsonObject("sinks");
+            context.assertEquals((long) DATAPOINTS, sinks.getJsonObject("fast").getLong("received"));
+            context.assertEquals((long) DATAPOINTS, sinks.getJsonObject("stuck").getLong("received"));
+        }));
+    }
+
+    /**
+     * Requests the statistics of the fan-out until a sink has sent the expected number of datapoints
+     * @param sink
+     *  the name of the sink
+     * @param sent
+     *  the expected number of sent datapoints
+     * @param assertions
+     *  invoked with the statistics of all sinks, once the sink has sent the datapoints or after 5 seconds
+     */
+    private void awaitSent(TestContext context, String sink, long sent, Consumer<JsonObject> assertions) {
+        awaitSent(context, sink, sent, System.currentTimeMillis() + 5000, assertions);
+    }
+
+    private void awaitSent(TestContext context,
+                           String sink,
+                           long sent,
+                           long deadline,
+                           Consumer<JsonObject> assertions) {
+
+        vertx.eventBus().<JsonObject>send("/stats/store/fanout", new JsonObject(), context.asyncAssertSuccess(reply -> {
+            final JsonObject sinks = reply.body().getJsonObject("sinks");
+            if (sinks.getJsonObject(sink).getLong("sent") < sent && System.currentTimeMillis() < deadline) {
+                vertx.setTimer(10, id -> awaitSent(context, sink, sent, deadline, assertions));
+            } else {
+                assertions.accept(sinks);
+            }
+        }));
+    }
+
+    private static JsonObject sink(String name, int queueSize) {
+        return new JsonObject().put("name", name)
+                               .put("address", "/" + name)
+                               .put("queueSize", queueSize)
+                               .put("maxRowLimit", 10)
+                               .put("maxDelay", 10)
+                               .put("overflow", "dropOldest");
+    }
+}
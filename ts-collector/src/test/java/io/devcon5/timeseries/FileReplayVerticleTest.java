@@ -0,0 +1,99 @@
+package io.devcon5.timeseries;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Replays a directory with a complete, a truncated and an active segment as left behind by a crashed sink.
+ */
+@RunWith(VertxUnitRunner.class)
+public class FileReplayVerticleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void replay_truncatedAndActiveSegment_completeDatapointsReplayed(TestContext context) throws Exception {
+
+        final Path directory = folder.newFolder("test").toPath();
+        final long now = System.currentTimeMillis();
+        Files.write(directory.resolve("test-" + (now - 7200000) + "-0000.ndjson.gz"), gzip(lines(0, 3), true));
+        Files.write(directory.resolve("test-" + (now - 3600000) + "-0001.ndjson.gz"),
+                    gzip(lines(3, 3) + "{\"name\":\"cp", false));
+        Files.write(directory.resolve("test-" + now + "-0002.ndjson"), lines(6, 1).getBytes(StandardCharsets.UTF_8));
+
+        final AtomicInteger received = new AtomicInteger();
+        final Async replayed = context.async(6);
+        vertx.eventBus().<JsonObject>consumer("/store/test", msg -> {
+            received.incrementAndGet();
+            replayed.countDown();
+        });
+        final JsonObject config = new JsonObject().put("path", directory.toString()).put("db", "test");
+        vertx.deployVerticle(FileReplayVerticle.class.getName(),
+                             new DeploymentOptions().setConfig(config),
+                             context.asyncAssertSuccess());
+        replayed.awaitSuccess(5000);
+
+        final Async done = context.async();
+        vertx.setTimer(200, id -> {
+            context.assertEquals(6, received.get());
+            done.complete();
+        });
+    }
+
+    private static String lines(int first, int count) {
+
+        final StringBuilder buf = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            buf.append(new JsonObject().put("name", "cpu")
+                                       .put("timestamp", 1000L + i)
+                                       .put("values", new JsonObject().put("load", i))
+                                       .encode())
+               .append('\n');
+        }
+        return buf.toString();
+    }
+
+    private static byte[] gzip(String data, boolean finish) throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out, true);
+        gzip.write(data.getBytes(StandardCharsets.UTF_8));
+        if (finish) {
+            gzip.close();
+        } else {
+            gzip.flush();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package io.devcon5.timeseries;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the file sink verticle with fewer json datapoints than fill a batch.
+ */
+@RunWith(VertxUnitRunner.class)
+public class FileSinkVerticleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void publish_fewDatapoints_writtenAfterMaxDelay(TestContext context) throws Exception {
+
+        deploy(context, 50);
+        publishDatapoints(3);
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (lines().size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        context.assertEquals(3, lines().size());
+    }
+
+    @Test
+    public void undeploy_bufferedDatapoints_written(TestContext context) throws Exception {
+
+        final String deployment = deploy(context, 60000);
+        publishDatapoints(3);
+
+        final Async undeployed = context.async();
+        //undeploy after the published datapoints have been delivered
+        vertx.setTimer(100, id -> vertx.undeploy(deployment, context.asyncAssertSuccess(v -> undeployed.complete())));
+        undeployed.awaitSuccess(15000);
+
+        context.assertEquals(3, lines().size());
+    }
+
+    private String deploy(TestContext context, long maxDelay) {
+
+        final JsonObject config = new JsonObject().put("dbnames", new JsonArray().add("test"))
+                                                  .put("directory", folder.getRoot().getAbsolutePath())
+                                                  .put("fsync", false)
+                                                  .put("maxDelay", maxDelay);
+        final Async deployed = context.async();
+        final String[] deployment = new String[1];
+        vertx.deployVerticle(FileSinkVerticle.class.getName(),
+                             new DeploymentOptions().setConfig(config),
+                             context.asyncAssertSuccess(id -> {
+                                 deployment[0] = id;
+                                 deployed.complete();
+                             }));
+        deployed.awaitSuccess(5000);
+        return deployment[0];
+    }
+
+    private void publishDatapoints(int count) {
+
+        for (int i = 0; i < count; i++) {
+            vertx.eventBus().publish("/store/test", new JsonObject().put("name", "cpu")
+                                                                    .put("timestamp", 1000L + i)
+                                                                    .put("values", new JsonObject().put("load", i)));
+        }
+    }
+
+    private List<String> lines() throws IOException {
+
+        final Path directory = folder.getRoot().toPath().resolve("test");
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        final List<String> lines = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.sorted().collect(Collectors.toList())) {
+                lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+}
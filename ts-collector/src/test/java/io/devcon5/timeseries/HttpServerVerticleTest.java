@@ -54,4 +54,58 @@ public class HttpServerVerticleTest {
         });
     }
 
+    @Test
+    public void query_forwardedToEventBus(TestContext context) {
+
+        rule.vertx().eventBus().<JsonObject>consumer("/stats/test",
+                msg -> msg.reply(new JsonObject().put("measurement", msg.body().getString("measurement"))));
+        final HttpClient client = rule.vertx().createHttpClient(new HttpClientOptions().setDefaultPort(defaultPort));
+
+        final Async async = context.async();
+        client.getNow("/stats/test?measurement=cpu", response -> {
+            context.assertEquals(200, response.statusCode());
+            response.bodyHandler(body -> {
+                context.assertEquals("cpu", body.toJsonObject().getString("measurement"));
+                client.close();
+                async.complete();
+            });
+        });
+    }
+
+    @Test
+    public void query_noConsumer_notFound(TestContext context) {
+
+        final HttpClient client = rule.vertx().createHttpClient(new HttpClientOptions().setDefaultPort(defaultPort));
+
+        final Async async = context.async();
+        client.getNow("/stats/unknown", response -> {
+            context.assertEquals(404, response.statusCode());
+            client.close();
+            async.complete();
+        });
+    }
+
+    @Test
+    public void ingest_columnar_singleBatch(TestContext context) {
+
+        final int port = defaultPort + 1;
+        final Async async = context.async();
+        rule.vertx().eventBus().<Object>consumer("/store/columnar", msg -> {
+            context.assertTrue(msg.body() instanceof ColumnarBatch);
+            final ColumnarBatch batch = (ColumnarBatch) msg.body();
+            context.assertEquals(2, batch.size());
+            context.assertEquals("cpu,host=web01", batch.getSeries(1).getKey());
+            async.complete();
+        });
+        final JsonObject config = new JsonObject().put("port", port).put("batchFormat", "columnar");
+        rule.vertx().deployVerticle(HttpServerVerticle.class.getName(), new DeploymentOptions().setConfig(config),
+                context.asyncAssertSuccess(id -> {
+            final HttpClient client = rule.vertx().createHttpClient(new HttpClientOptions().setDefaultPort(port));
+            client.post("/store/columnar", response -> {
+                context.assertEquals(204, response.statusCode());
+                client.close();
+            }).end("[{\"name\":\"cpu\",\"timestamp\":1,\"values\":{\"load\":1}},"
+                   + "{\"name\":\"cpu\",\"tags\":{\"host\":\"web01\"},\"timestamp\":2,\"values\":{\"load\":2}}]");
+        }));
+    }
 }
@@ -0,0 +1,147 @@
+package io.devcon5.timeseries;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the influx verticle against several local stub servers that record the lines written to them.
+ */
+@RunWith(VertxUnitRunner.class)
+public class InfluxVerticleTest {
+
+    private static final int DATAPOINTS = 20;
+
+    private Vertx vertx;
+
+    private final List<Integer> ports = new ArrayList<>();
+
+    /**
+     * lines received per stub server port
+     */
+    private final Map<String, Set<Integer>> received = new ConcurrentHashMap<>();
+
+    private Async writes;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+
+        vertx = Vertx.vertx();
+        for (int i = 0; i < 3; i++) {
+            final int port = freePort();
+            ports.add(port);
+            vertx.createHttpServer().requestHandler(req -> req.bodyHandler(body -> {
+                for (String line : body.toString().split("\n")) {
+                    received.computeIfAbsent(line, l -> ConcurrentHashMap.newKeySet()).add(port);
+                    writes.countDown();
+                }
+                req.response().setStatusCode(204).end();
+            })).listen(port, context.asyncAssertSuccess());
+        }
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void write_replicatedToDistinctNodes(TestContext context) throws Exception {
+
+        writes = context.async(DATAPOINTS * 2);
+        deployInflux(context, nodes(ports), 2);
+
+        publishDatapoints();
+        writes.awaitSuccess(5000);
+
+        assertReplicated(context, 2);
+    }
+
+    @Test
+    public void write_nodeDown_failoverToNextNode(TestContext context) throws Exception {
+
+        final List<Integer> withDeadNode = new ArrayList<>(ports);
+        withDeadNode.add(freePort());
+        writes = context.async(DATAPOINTS * 2);
+        deployInflux(context, nodes(withDeadNode), 2);
+
+        publishDatapoints();
+        writes.awaitSuccess(5000);
+
+        assertReplicated(context, 2);
+    }
+
+    @Test
+    public void write_seriesStickToTheirNode(TestContext context) throws Exception {
+
+        writes = context.async(DATAPOINTS);
+        deployInflux(context, nodes(ports), 1);
+
+        publishDatapoints();
+        writes.awaitSuccess(5000);
+
+        assertReplicated(context, 1);
+        final Map<String, Integer> owners = new ConcurrentHashMap<>();
+        received.forEach((line, nodes) -> owners.put(line.substring(0, line.indexOf(' ')), nodes.iterator().next()));
+        context.assertTrue(owners.values().stream().distinct().count() > 1, "all series on one node");
+    }
+
+    private void assertReplicated(TestContext context, int replicas) {
+
+        context.assertEquals(DATAPOINTS, received.size());
+        received.forEach((line, nodes) -> context.assertEquals(replicas, nodes.size(), line));
+    }
+
+    private void deployInflux(TestContext context, JsonArray nodes, int replicationFactor) {
+
+        final JsonObject config = new JsonObject().put("dbnames", new JsonArray().add("test"))
+                                                  .put("nodes", nodes)
+                                                  .put("replicationFactor", replicationFactor)
+                                                  .put("maxRowLimit", 5);
+        final Async deployed = context.async();
+        vertx.deployVerticle(InfluxVerticle.class.getName(),
+                             new DeploymentOptions().setConfig(config),
+                             context.asyncAssertSuccess(id -> deployed.complete()));
+        deployed.awaitSuccess(2000);
+    }
+
+    private void publishDatapoints() {
+
+        for (int i = 0; i < DATAPOINTS; i++) {
+            vertx.eventBus().publish("/store/test", new JsonObject().put("name", "cpu")
+                                                                    .put("timestamp", 1000L + i)
+                                                                    .put("tags", new JsonObject().put("host", "web" + i))
+                                                                    .put("values", new JsonObject().put("load", i)));
+        }
+    }
+
+    private static JsonArray nodes(List<Integer> ports) {
+
+        final JsonArray nodes = new JsonArray();
+        ports.forEach(port -> nodes.add(new JsonObject().put("host", "localhost").put("port", port)));
+        return nodes;
+    }
+
+    private static int freePort() throws Exception {
+
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.devcon5.timeseries;
+
+import static io.devcon5.timeseries.IngestLimiter.Decision.ACCEPT;
+import static io.devcon5.timeseries.IngestLimiter.Decision.DROP;
+import static io.devcon5.timeseries.IngestLimiter.Decision.REJECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class IngestLimiterTest {
+
+    @Test
+    public void tryAcquire_noLimits_accepted() throws Exception {
+
+        final IngestLimiter limiter = new IngestLimiter(new JsonObject());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ACCEPT, limiter.tryAcquire("test", "client", 1, 100));
+        }
+    }
+
+    @Test
+    public void tryAcquire_databaseLimit() throws Exception {
+
+        final IngestLimiter limiter = new IngestLimiter(limits("databases", "test", "pointsPerSecond", 2));
+
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "client", 1, 100));
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "client", 1, 100));
+        assertEquals(REJECT, limiter.tryAcquire("test", "client", 1, 100));
+        assertEquals(ACCEPT, limiter.tryAcquire("other", "client", 1, 100));
+        assertEquals(1L, (long) limiter.stats().getJsonObject("rejected").getLong("database:test"));
+    }
+
+    @Test
+    public void tryAcquire_defaultClientLimit_perClient() throws Exception {
+
+        final IngestLimiter limiter = new IngestLimiter(limits("clients", "*", "bytesPerSecond", 100));
+
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "a", 1, 100));
+        assertEquals(REJECT, limiter.tryAcquire("test", "a", 1, 100));
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "b", 1, 100));
+    }
+
+    @Test
+    public void tryAcquire_samplePolicy_dropped() throws Exception {
+
+        final IngestLimiter limiter = new IngestLimiter(limits("databases", "*", "pointsPerSecond", 1)
+                                                                .put("policy", "sample")
+                                                                .put("sampleRate", 0.0));
+
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "a", 1, 100));
+        assertEquals(DROP, limiter.tryAcquire("test", "a", 1, 100));
+    }
+
+    @Test
+    public void tryAcquire_idleClients_evicted() throws Exception {
+
+        final JsonObject limit = new JsonObject().put("pointsPerSecond", 1).put("burst", 0.01);
+        final IngestLimiter limiter = new IngestLimiter(new JsonObject().put("idleTimeout", 0)
+                                                                        .put("clients", new JsonObject()
+                                                                                .put("*", limit)));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ACCEPT, limiter.tryAcquire("test", "client" + i, 1, 100));
+            assertEquals(REJECT, limiter.tryAcquire("test", "client" + i, 1, 100));
+        }
+        assertTrue(limiter.getBucketCount() > 0);
+        Thread.sleep(50);
+
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "client0", 1, 100));
+
+        assertEquals(1, limiter.getBucketCount());
+        final JsonObject rejected = limiter.stats().getJsonObject("rejected");
+        assertEquals(1, rejected.size());
+        assertEquals(100L, (long) rejected.getLong("client:*"));
+    }
+
+    @Test
+    public void configure_changesRateAtRuntime() throws Exception {
+
+        final IngestLimiter limiter = new IngestLimiter(limits("databases", "test", "pointsPerSecond", 1));
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "a", 1, 100));
+        assertEquals(REJECT, limiter.tryAcquire("test", "a", 1, 100));
+
+        limiter.configure(new JsonObject());
+
+        assertEquals(ACCEPT, limiter.tryAcquire("test", "a", 1, 100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void configure_unknownPolicy() throws Exception {
+
+        new IngestLimiter(new JsonObject().put("policy", "ignore"));
+    }
+
+    private static JsonObject limits(String type, String name, String quantity, int rate) {
+        return new JsonObject().put(type, new JsonObject().put(name, new JsonObject().put(quantity, rate)));
+    }
+}
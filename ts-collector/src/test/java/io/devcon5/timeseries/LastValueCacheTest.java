@@ -0,0 +1,148 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class LastValueCacheTest {
+
+    private static final Map<String, Pattern> NO_TAGS = Collections.emptyMap();
+
+    private final SeriesDictionary dictionary = new SeriesDictionary();
+
+    private final LastValueCache cache = new LastValueCache(10, 1000);
+
+    @Test
+    public void update_newerReplacesOlder() throws Exception {
+
+        cache.update(datapoint("cpu", "web01", 2000L, 2), 0);
+        cache.update(datapoint("cpu", "web01", 1000L, 1), 0);
+        cache.update(datapoint("cpu", "web01", 3000L, 3), 0);
+
+        final List<JsonObject> latest = cache.query("cpu", NO_TAGS, 100, 0);
+
+        assertEquals(1, latest.size());
+        assertEquals(3000L, (long) latest.get(0).getLong("timestamp"));
+        assertEquals(3, (int) latest.get(0).getJsonObject("values").getInteger("load"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void query_measurementAndTagFilter() throws Exception {
+
+        cache.update(datapoint("cpu", "web01", 1000L, 1), 0);
+        cache.update(datapoint("cpu", "db01", 1000L, 2), 0);
+        cache.update(datapoint("mem", "web01", 1000L, 3), 0);
+
+        assertEquals(2, cache.query("cpu", NO_TAGS, 100, 0).size());
+        assertEquals(3, cache.query(null, NO_TAGS, 100, 0).size());
+        assertEquals(3, cache.query("cpu|mem", NO_TAGS, 100, 0).size());
+        assertEquals(2, cache.query(null, Collections.singletonMap("host", Pattern.compile("web.*")), 100, 0).size());
+        assertEquals(1, cache.query("cpu", Collections.singletonMap("host", Pattern.compile("db01")), 100, 0).size());
+        assertEquals(0, cache.query("disk", NO_TAGS, 100, 0).size());
+        assertEquals(1, cache.query(null, NO_TAGS, 1, 0).size());
+    }
+
+    @Test
+    public void update_columnarBatch() throws Exception {
+
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 2);
+        builder.add(datapoint("cpu", "web01", 1000L, 1));
+        builder.add(datapoint("cpu", "web01", 2000L, 2));
+        cache.update(builder.build(), 0);
+
+        final List<JsonObject> latest = cache.query("cpu", NO_TAGS, 100, 0);
+
+        assertEquals(1, latest.size());
+        assertEquals(2.0, latest.get(0).getJsonObject("values").getDouble("load"), 0.0);
+    }
+
+    @Test
+    public void update_jsonAndColumnarBatch_sameSeries() throws Exception {
+
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 1);
+        builder.add(datapoint("cpu", "web01", 1000L, 1));
+        cache.update(builder.build(), 0);
+        cache.update(datapoint("cpu", "web01", 2000L, 2), 0);
+
+        final List<JsonObject> latest = cache.query("cpu", NO_TAGS, 100, 0);
+
+        assertEquals(1, cache.size());
+        assertEquals(2000L, (long) latest.get(0).getLong("timestamp"));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void update_maxSeriesExceeded_leastRecentlyUsedEvicted() throws Exception {
+
+        for (int i = 0; i < 10; i++) {
+            cache.update(datapoint("cpu", "host" + i, 1000L, i), i);
+        }
+        //reading host0 makes host1 the least recently used series
+        cache.query("cpu", Collections.singletonMap("host", Pattern.compile("host0")), 100, 20);
+
+        cache.update(datapoint("cpu", "host10", 1000L, 10), 21);
+
+        assertEquals(9, cache.size());
+        assertEquals(2, cache.getEvicted());
+        assertEquals(1, cache.query("cpu", Collections.singletonMap("host", Pattern.compile("host0")), 100, 22).size());
+        assertEquals(0, cache.query("cpu", Collections.singletonMap("host", Pattern.compile("host[12]")), 100, 22)
+                             .size());
+    }
+
+    @Test
+    public void expire_notUpdatedWithinTtl() throws Exception {
+
+        cache.update(datapoint("cpu", "web01", 1000L, 1), 0);
+        cache.update(datapoint("cpu", "web02", 1000L, 1), 500);
+
+        assertEquals(1, cache.query("cpu", NO_TAGS, 100, 1200).size());
+        assertEquals(1, cache.expire(1200));
+        assertEquals(1, cache.size());
+        assertTrue(cache.query("cpu", NO_TAGS, 100, 1500).isEmpty());
+    }
+
+    @Test
+    public void expire_lastSeriesOfMeasurement_measurementRemoved() throws Exception {
+
+        cache.update(datapoint("cpu", "web01", 1000L, 1), 0);
+        cache.update(datapoint("mem", "web01", 1000L, 1), 500);
+
+        assertEquals(1, cache.expire(1200));
+        assertEquals(1, cache.measurements());
+
+        cache.update(datapoint("cpu", "web01", 2000L, 2), 1300);
+        assertEquals(2, cache.measurements());
+        assertEquals(1, cache.query("cpu", NO_TAGS, 100, 1300).size());
+    }
+
+    @Test
+    public void update_maxSeriesExceeded_measurementOfEvictedSeriesRemoved() throws Exception {
+
+        for (int i = 0; i < 10; i++) {
+            cache.update(datapoint("m" + i, "web01", 1000L, i), i);
+        }
+
+        cache.update(datapoint("m10", "web01", 1000L, 10), 10);
+
+        assertEquals(9, cache.size());
+        assertEquals(9, cache.measurements());
+    }
+
+    private static JsonObject datapoint(String name, String host, long timestamp, int load) {
+        return new JsonObject().put("name", name)
+                               .put("tags", new JsonObject().put("host", host))
+                               .put("values", new JsonObject().put("load", load))
+                               .put("timestamp", timestamp);
+    }
+}
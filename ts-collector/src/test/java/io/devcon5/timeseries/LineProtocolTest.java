@@ -0,0 +1,48 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class LineProtocolTest {
+
+    @Test
+    public void format() throws Exception {
+
+        final JsonObject dp = new JsonObject().put("name", "cpu")
+                                              .put("timestamp", 1000L)
+                                              .put("tags", new JsonObject().put("host", "web 01"))
+                                              .put("values", new JsonObject().put("load", 12));
+
+        assertEquals("cpu,host=web\\ 01 load=12 1000", LineProtocol.format(dp));
+    }
+
+    @Test
+    public void parse_reversesFormat() throws Exception {
+
+        final JsonObject dp = new JsonObject().put("name", "cpu")
+                                              .put("timestamp", 1000L)
+                                              .put("tags", new JsonObject().put("host", "web 01").put("dc", "a,b=c"))
+                                              .put("values", new JsonObject().put("load", 12L).put("temp", 36.6));
+
+        final JsonObject parsed = LineProtocol.parse(LineProtocol.format(dp));
+
+        assertEquals(dp, parsed);
+    }
+
+    @Test
+    public void parse_withoutTags() throws Exception {
+
+        final JsonObject parsed = LineProtocol.parse("cpu load=12i,up=true 1000");
+
+        assertEquals("cpu", parsed.getString("name"));
+        assertEquals(1000L, (long) parsed.getLong("timestamp"));
+        assertEquals(0, parsed.getJsonObject("tags").size());
+        assertEquals(12L, (long) parsed.getJsonObject("values").getLong("load"));
+        assertEquals(true, parsed.getJsonObject("values").getBoolean("up"));
+    }
+}
@@ -0,0 +1,187 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class OverloadControllerTest {
+
+    @Test
+    public void apply_notOverloaded_allAccepted() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject());
+        final List<JsonObject> datapoints = datapoints("cpu", 10);
+
+        assertFalse(controller.update(10, 10, 0.5));
+        assertSame(datapoints, controller.apply(datapoints));
+        assertEquals(0, controller.getLevel());
+        final JsonObject normal = controller.stats().getJsonObject("classes").getJsonObject("normal");
+        assertEquals(10L, (long) normal.getLong("accepted"));
+    }
+
+    @Test
+    public void update_pressure_escalatesUpToMaxLevel() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject());
+
+        assertTrue(controller.update(200, 0, 0.1));
+        assertTrue(controller.update(0, 150, 0.1));
+        assertTrue(controller.update(0, 0, 0.95));
+        assertFalse(controller.update(1000, 1000, 1.0));
+
+        assertEquals(3, controller.getLevel());
+        assertEquals(3L, (long) controller.stats().getLong("escalations"));
+    }
+
+    @Test
+    public void update_belowRecovery_recoversStepwise() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject());
+        controller.update(400, 0, 0.1);
+        controller.update(400, 0, 0.1);
+
+        //between recovery and threshold the level is kept
+        assertFalse(controller.update(180, 0, 0.1));
+        assertEquals(2, controller.getLevel());
+
+        assertTrue(controller.update(10, 0, 0.1));
+        assertEquals(1, controller.getLevel());
+        assertTrue(controller.update(10, 0, 0.1));
+        assertEquals(0, controller.getLevel());
+        assertFalse(controller.update(10, 0, 0.1));
+    }
+
+    @Test
+    public void apply_overloaded_samplesLowPriorityOnly() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject()
+                .put("classes", new JsonObject()
+                        .put("low", new JsonObject().put("priority", 0).put("sampleRate", 0.0))
+                        .put("normal", new JsonObject().put("priority", 1).put("sampleRate", 0.5)))
+                .put("measurements", new JsonObject().put("debug\\..*", "low")));
+        controller.update(1000, 0, 0.1);
+        final List<JsonObject> datapoints = datapoints("debug.trace", 10);
+        datapoints.addAll(datapoints("cpu", 10));
+
+        final List<JsonObject> accepted = controller.apply(datapoints);
+
+        assertEquals(10, accepted.size());
+        accepted.forEach(dp -> assertEquals("cpu", dp.getString("name")));
+        accepted.forEach(dp -> assertFalse(dp.getJsonObject("tags").containsKey("sample_rate")));
+        final JsonObject stats = controller.stats().getJsonObject("classes");
+        assertEquals(10L, (long) stats.getJsonObject("low").getLong("dropped"));
+        assertEquals(10L, (long) stats.getJsonObject("normal").getLong("accepted"));
+    }
+
+    @Test
+    public void apply_sampled_sampleRateTagged() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject().put("defaultClass", "low"));
+        controller.update(1000, 0, 0.1);
+
+        final List<JsonObject> accepted = controller.apply(datapoints("cpu", 10000));
+
+        //sample rate of the low class is 0.1
+        assertTrue(accepted.size() > 800 && accepted.size() < 1200);
+        accepted.forEach(dp -> assertEquals("0.1", dp.getJsonObject("tags").getString("sample_rate")));
+        final JsonObject low = controller.stats().getJsonObject("classes").getJsonObject("low");
+        assertEquals(accepted.size(), (long) low.getLong("sampled"));
+        assertEquals(10000 - accepted.size(), (long) low.getLong("dropped"));
+        assertTrue(low.getBoolean("shedding"));
+    }
+
+    @Test
+    public void apply_batch_sampledSeriesTagged() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject()
+                .put("measurements", new JsonObject().put("debug", "low")));
+        final ColumnarBatch.Builder builder = ColumnarBatch.builder(2000);
+        datapoints("debug", 1000).forEach(builder::add);
+        datapoints("cpu", 1000).forEach(builder::add);
+        final ColumnarBatch batch = builder.build();
+        assertSame(batch, controller.apply(batch));
+        controller.update(1000, 0, 0.1);
+
+        final ColumnarBatch accepted = controller.apply(batch);
+
+        int debug = 0;
+        for (int row = 0; row < accepted.size(); row++) {
+            final SeriesDictionary.Series series = accepted.getSeries(row);
+            if ("debug".equals(series.getName())) {
+                debug++;
+                assertEquals("0.1", series.getTags().get("sample_rate"));
+                assertEquals("a", series.getTags().get("host"));
+            } else {
+                assertFalse(series.getTags().containsKey("sample_rate"));
+            }
+        }
+        assertEquals(1000, accepted.size() - debug);
+        assertTrue(debug > 50 && debug < 150);
+    }
+
+    @Test
+    public void apply_batch_sampledSeriesInDictionaryOfBatch() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject()
+                .put("measurements", new JsonObject().put("debug", "low")));
+        final SeriesDictionary dictionary = new SeriesDictionary();
+        final ColumnarBatch.Builder builder = new ColumnarBatch.Builder(dictionary, 2000);
+        datapoints("debug", 1000).forEach(builder::add);
+        datapoints("cpu", 1000).forEach(builder::add);
+        final ColumnarBatch batch = builder.build();
+        controller.update(1000, 0, 0.1);
+
+        final ColumnarBatch accepted = controller.apply(batch);
+
+        //debug, cpu and debug with the sample rate tag
+        assertEquals(3, dictionary.size());
+        assertEquals(batch.getSeriesId(1000), accepted.getSeriesId(accepted.size() - 1));
+    }
+
+    @Test
+    public void apply_manyMeasurements_cacheBounded() throws Exception {
+
+        final OverloadController controller = new OverloadController(new JsonObject()
+                .put("measurements", new JsonObject().put("debug\\..*", "low")));
+        controller.update(1000, 0, 0.1);
+        final List<JsonObject> datapoints = new ArrayList<>();
+        for (int i = 0; i < OverloadController.MAX_CACHED_MEASUREMENTS + 10; i++) {
+            datapoints.addAll(datapoints("cpu" + i, 1));
+        }
+        datapoints.addAll(datapoints("debug.trace", 10));
+
+        controller.apply(datapoints);
+
+        assertEquals(OverloadController.MAX_CACHED_MEASUREMENTS, controller.getCachedMeasurements());
+        final JsonObject low = controller.stats().getJsonObject("classes").getJsonObject("low");
+        assertEquals(10L, low.getLong("sampled") + low.getLong("dropped"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_unknownClass_fails() throws Exception {
+
+        new OverloadController(new JsonObject().put("measurements", new JsonObject().put("cpu", "unknown")));
+    }
+
+    private static List<JsonObject> datapoints(String name, int count) {
+
+        final List<JsonObject> datapoints = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            datapoints.add(new JsonObject().put("name", name)
+                                           .put("timestamp", 1000L + i)
+                                           .put("tags", new JsonObject().put("host", "a"))
+                                           .put("values", new JsonObject().put("value", i)));
+        }
+        return datapoints;
+    }
+}
@@ -0,0 +1,146 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SegmentWriterTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("segments");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    @Test
+    public void append_allChunksWritten() throws Exception {
+
+        final SegmentWriter writer = new SegmentWriter(directory, "test", "lp", 1 << 20, 60000, 1024, 100, false, true);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(writer.append(("line" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+        writer.close();
+
+        final List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        assertEquals(expectedLines(0, 10), new String(Files.readAllBytes(segments.get(0)), StandardCharsets.UTF_8));
+        assertEquals(60, writer.getBytesWritten());
+    }
+
+    @Test
+    public void append_chunkLargerThanBuffer() throws Exception {
+
+        final SegmentWriter writer = new SegmentWriter(directory, "test", "lp", 1 << 20, 60000, 16, 100, false, false);
+        writer.append("line0\n".getBytes(StandardCharsets.UTF_8));
+        writer.append(expectedLines(1, 10).getBytes(StandardCharsets.UTF_8));
+        writer.close();
+
+        assertEquals(expectedLines(0, 10), new String(Files.readAllBytes(segments().get(0)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void append_segmentSizeExceeded_rolled() throws Exception {
+
+        final SegmentWriter writer = new SegmentWriter(directory, "test", "lp", 12, 60000, 1024, 100, false, false);
+        for (int i = 0; i < 10; i++) {
+            writer.append(("line" + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        writer.close();
+
+        final List<Path> segments = segments();
+        assertEquals(5, segments.size());
+        final StringBuilder content = new StringBuilder();
+        for (Path segment : segments) {
+            content.append(new String(Files.readAllBytes(segment), StandardCharsets.UTF_8));
+        }
+        assertEquals(expectedLines(0, 10), content.toString());
+    }
+
+    @Test
+    public void append_compressed() throws Exception {
+
+        final SegmentWriter writer = new SegmentWriter(directory, "test", "lp", 1 << 20, 60000, 1024, 100, true, true);
+        for (int i = 0; i < 10; i++) {
+            writer.append(("line" + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        writer.close();
+
+        final List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        assertTrue(segments.get(0).toString().endsWith(".lp.gz"));
+        assertEquals(expectedLines(0, 10), gunzip(segments.get(0)));
+    }
+
+    @Test
+    public void append_writeFailed_rejectedAndClosed() throws Exception {
+
+        final SegmentWriter writer = new SegmentWriter(directory, "test", "lp", 1 << 20, 60000, 1024, 100, false, false);
+        Files.delete(directory);
+
+        assertTrue(writer.append("line0\n".getBytes(StandardCharsets.UTF_8)));
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (writer.getFailure() == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+
+        assertNotNull(writer.getFailure());
+        assertFalse(writer.append("line1\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, writer.getDroppedChunks());
+        writer.closeAsync().get(5, TimeUnit.SECONDS);
+        Files.createDirectories(directory);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String expectedLines(int from, int to) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            lines.append("line").append(i).append('\n');
+        }
+        return lines.toString();
+    }
+
+    private static String gunzip(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SeriesDictionaryTest {
+
+    @Test
+    public void next_full_replacedByNewGeneration() throws Exception {
+
+        final AtomicReference<SeriesDictionary> generation = new AtomicReference<>(new SeriesDictionary(2));
+        final SeriesDictionary first = SeriesDictionary.next(generation);
+        final int cpu = first.idOf("cpu", null);
+        assertSame(first, SeriesDictionary.next(generation));
+
+        first.idOf("mem", null);
+        assertTrue(first.isFull());
+        final SeriesDictionary second = SeriesDictionary.next(generation);
+
+        assertNotSame(first, second);
+        assertFalse(second.isFull());
+        assertEquals(0, second.size());
+        assertSame(second, generation.get());
+        //ids of the replaced generation remain valid for its batches
+        assertEquals("cpu", first.get(cpu).getName());
+    }
+
+    @Test
+    public void add_batchOfReplacedGeneration_seriesRegisteredInNewGeneration() throws Exception {
+
+        final SeriesDictionary first = new SeriesDictionary(1);
+        final ColumnarBatch.Builder old = new ColumnarBatch.Builder(first, 1);
+        old.add(new JsonObject().put("name", "cpu")
+                                .put("tags", new JsonObject().put("host", "web01"))
+                                .put("values", new JsonObject().put("load", 1))
+                                .put("timestamp", 1000L));
+        final SeriesDictionary second = new SeriesDictionary(1);
+
+        final ColumnarBatch batch = new ColumnarBatch.Builder(second, 1).add(old.build(), 0).build();
+
+        assertEquals(1, second.size());
+        assertEquals("cpu,host=web01", batch.getSeries(0).getKey());
+    }
+}
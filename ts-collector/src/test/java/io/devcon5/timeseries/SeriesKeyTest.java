@@ -0,0 +1,62 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SeriesKeyTest {
+
+    @Test
+    public void of_tagsSorted() throws Exception {
+
+        final Map<String, Object> tags = new LinkedHashMap<>();
+        tags.put("region", "eu");
+        tags.put("host", "web 01");
+
+        assertEquals("cpu,host=web 01,region=eu", SeriesKey.of("cpu", tags));
+        assertEquals("cpu", SeriesKey.of("cpu", null));
+    }
+
+    @Test
+    public void of_separatorsInNamesAndTags_distinct() throws Exception {
+
+        assertEquals("cpu\\,host\\=a", SeriesKey.of("cpu,host=a", null));
+        assertNotEquals(SeriesKey.of("cpu,host=a", null), SeriesKey.of("cpu", Collections.singletonMap("host", "a")));
+        assertNotEquals(SeriesKey.of("cpu", Collections.singletonMap("host", "a,b=c")),
+                        SeriesKey.of("cpu", tags("host", "a", "b", "c")));
+        assertNotEquals(SeriesKey.of("cpu\\", Collections.singletonMap("host", "a")),
+                        SeriesKey.of("cpu\\,host=a", null));
+    }
+
+    @Test
+    public void idOf_separatorsInNamesAndTags_distinctSeries() throws Exception {
+
+        final SeriesDictionary dictionary = new SeriesDictionary();
+
+        final int measure = dictionary.idOf(new JsonObject().put("name", "cpu,host=a"));
+        final int tagged = dictionary.idOf(new JsonObject().put("name", "cpu")
+                                                           .put("tags", new JsonObject().put("host", "a")));
+
+        assertNotEquals(measure, tagged);
+        assertEquals("cpu\\,host\\=a", dictionary.get(measure).getLine());
+        assertEquals("cpu,host=a", dictionary.get(tagged).getLine());
+    }
+
+    private static Map<String, Object> tags(String... keyValues) {
+
+        final Map<String, Object> tags = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            tags.put(keyValues[i], keyValues[i + 1]);
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,84 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SinkQueueTest {
+
+    @Test
+    public void offer_full_dropNewest() throws Exception {
+
+        final SinkQueue queue = new SinkQueue(3, SinkQueue.Overflow.DROP_NEWEST);
+
+        assertTrue(queue.offer("a", 2, 0));
+        assertFalse(queue.offer("b", 2, 1));
+        assertTrue(queue.offer("c", 1, 2));
+
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getDropped());
+        assertEquals(5, queue.getReceived());
+        assertEquals(Arrays.asList("a", "c"), queue.poll(10));
+    }
+
+    @Test
+    public void offer_full_dropOldest() throws Exception {
+
+        final SinkQueue queue = new SinkQueue(3, SinkQueue.Overflow.DROP_OLDEST);
+
+        queue.offer("a", 1, 0);
+        queue.offer("b", 2, 1);
+        assertTrue(queue.offer("c", 2, 2));
+
+        assertEquals(2, queue.size());
+        assertEquals(3, queue.getDropped());
+        assertEquals(5, queue.getEnqueued());
+        assertEquals(5, queue.getReceived());
+        assertEquals(Collections.singletonList("c"), queue.poll(10));
+    }
+
+    @Test
+    public void offer_largerThanCapacity_dropped() throws Exception {
+
+        final SinkQueue queue = new SinkQueue(3, SinkQueue.Overflow.DROP_OLDEST);
+        queue.offer("a", 1, 0);
+
+        assertFalse(queue.offer("b", 4, 1));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void poll_chunksNotSplit() throws Exception {
+
+        final SinkQueue queue = new SinkQueue(100, SinkQueue.Overflow.DROP_NEWEST);
+        queue.offer("a", 5, 0);
+        queue.offer("b", 3, 1);
+        queue.offer("c", 3, 2);
+
+        assertEquals(Arrays.asList("a", "b"), queue.poll(10));
+        assertEquals(Collections.singletonList("c"), queue.poll(2));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void lag_ageOfOldestChunk() throws Exception {
+
+        final SinkQueue queue = new SinkQueue(100, SinkQueue.Overflow.DROP_NEWEST);
+        assertEquals(0, queue.lag(1000));
+
+        queue.offer("a", 1, 100);
+        queue.offer("b", 1, 500);
+
+        assertEquals(900, queue.lag(1000));
+        queue.poll(1);
+        assertEquals(500, queue.lag(1000));
+    }
+}
@@ -0,0 +1,95 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void tryAcquire_withinCapacity() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(10, 1.0);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1));
+        }
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void tryAcquire_refills() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(100, 0.1);
+        while (bucket.tryAcquire(1)) {
+            //empty the bucket
+        }
+
+        TimeUnit.MILLISECONDS.sleep(50);
+
+        assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void tryAcquire_largerThanCapacity_grantedOnFullBucket() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(10, 1.0);
+
+        assertTrue(bucket.tryAcquire(100));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void release_tokensAvailableAgain() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(10, 1.0);
+        assertTrue(bucket.tryAcquire(10));
+
+        bucket.release(5);
+
+        assertTrue(bucket.tryAcquire(5));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void setRate_appliesToExistingBucket() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(1, 1.0);
+
+        bucket.setRate(1000, 1.0);
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(bucket.tryAcquire(1));
+        }
+    }
+
+    @Test
+    public void tryAcquire_concurrent_noTokensLost() throws Exception {
+
+        final TokenBucket bucket = new TokenBucket(1, 1000);
+        final AtomicInteger granted = new AtomicInteger();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(1)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue("granted " + granted.get(), granted.get() >= 1000 && granted.get() <= 1001);
+    }
+}
@@ -0,0 +1,135 @@
+package io.devcon5.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TransformRuleTest {
+
+    private final List<String> routed = new ArrayList<>();
+
+    @Test
+    public void renameTag() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "renameTag")
+                                                           .put("from", "host")
+                                                           .put("to", "hostname"));
+
+        final JsonObject result = rule.apply(datapoint("cpu"));
+
+        assertEquals("web01", result.getJsonObject("tags").getString("hostname"));
+        assertFalse(result.getJsonObject("tags").containsKey("host"));
+        assertEquals(1L, rule.getHits());
+    }
+
+    @Test
+    public void dropTag_conditionNotMatching_unchanged() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "dropTag")
+                                                           .put("tag", "host")
+                                                           .put("when", new JsonObject().put("measurement", "mem.*")));
+
+        final JsonObject result = rule.apply(datapoint("cpu"));
+
+        assertEquals("web01", result.getJsonObject("tags").getString("host"));
+        assertEquals(0L, rule.getHits());
+    }
+
+    @Test
+    public void drop_tagMatches() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "drop")
+                                                           .put("when", new JsonObject().put("tags",
+                                                                   new JsonObject().put("host", "web\\d+"))));
+
+        assertNull(rule.apply(datapoint("cpu")));
+    }
+
+    @Test
+    public void keep_dropsNonMatching() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "keep")
+                                                           .put("when", new JsonObject().put("measurement", "cpu")));
+
+        assertNull(rule.apply(datapoint("mem")));
+        assertEquals("cpu", rule.apply(datapoint("cpu")).getString("name"));
+    }
+
+    @Test
+    public void derive() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "derive")
+                                                           .put("field", "ratio")
+                                                           .put("op", "divide")
+                                                           .put("args", new JsonArray().add("used").add("total")));
+
+        final JsonObject result = rule.apply(datapoint("mem"));
+
+        assertEquals(0.25, result.getJsonObject("values").getDouble("ratio"), 0.0001);
+    }
+
+    @Test
+    public void convert() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "convert")
+                                                           .put("field", "used")
+                                                           .put("to", "usedKB")
+                                                           .put("scale", 0.001)
+                                                           .put("offset", 0.0));
+
+        final JsonObject result = rule.apply(datapoint("mem"));
+
+        assertEquals(1.0, result.getJsonObject("values").getDouble("usedKB"), 0.0001);
+        assertEquals(1000, (int) result.getJsonObject("values").getInteger("used"));
+    }
+
+    @Test
+    public void route() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "route").put("to", "/store/other"));
+
+        assertNull(rule.apply(datapoint("cpu")));
+        assertEquals(1, routed.size());
+        assertEquals("/store/other", routed.get(0));
+    }
+
+    @Test
+    public void route_continue() throws Exception {
+
+        final TransformRule rule = compile(new JsonObject().put("action", "route")
+                                                           .put("to", "/store/other")
+                                                           .put("continue", true));
+        final JsonObject dp = datapoint("cpu");
+
+        assertSame(dp, rule.apply(dp));
+        assertEquals(1, routed.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_unknownAction() throws Exception {
+
+        compile(new JsonObject().put("action", "explode"));
+    }
+
+    private TransformRule compile(JsonObject definition) {
+        return TransformRule.compile(definition, (address, dp) -> routed.add(address));
+    }
+
+    private static JsonObject datapoint(String name) {
+        return new JsonObject().put("name", name)
+                               .put("timestamp", 1000L)
+                               .put("tags", new JsonObject().put("host", "web01"))
+                               .put("values", new JsonObject().put("used", 1000).put("total", 4000));
+    }
+}
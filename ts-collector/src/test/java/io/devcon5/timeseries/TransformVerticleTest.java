@@ -0,0 +1,80 @@
+package io.devcon5.timeseries;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the transform verticle with json arrays of datapoints and malformed datapoints.
+ */
+@RunWith(VertxUnitRunner.class)
+public class TransformVerticleTest {
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp(TestContext context) throws Exception {
+
+        vertx = Vertx.vertx();
+        final JsonObject config = new JsonObject()
+                .put("address", "/transform/test")
+                .put("output", "/store/test")
+                .put("maxDelay", 10)
+                .put("rules", new JsonArray()
+                        .add(new JsonObject().put("action", "drop")
+                                             .put("when", new JsonObject().put("measurement", "debug\\..*")))
+                        .add(new JsonObject().put("action", "dropTag")
+                                             .put("tag", "pid")
+                                             .put("when", new JsonObject().put("tags", new JsonObject()
+                                                     .put("host", "web.*")))));
+        vertx.deployVerticle(TransformVerticle.class.getName(),
+                             new DeploymentOptions().setConfig(config),
+                             context.asyncAssertSuccess());
+    }
+
+    @After
+    public void tearDown(TestContext context) throws Exception {
+
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void process_arrayAndInvalidDatapoints_validForwarded(TestContext context) throws Exception {
+
+        final Async forwarded = context.async(4);
+        vertx.eventBus().<JsonObject>consumer("/store/test", msg -> {
+            context.assertFalse(msg.body().getJsonObject("tags").containsKey("pid"));
+            forwarded.countDown();
+        });
+
+        vertx.eventBus().publish("/transform/test", new JsonArray().add(datapoint("cpu", "web01"))
+                                                                   .add(datapoint("debug.trace", "web01"))
+                                                                   .add(datapoint("cpu", "web02")));
+        //the tag condition fails on a numeric tag value
+        vertx.eventBus().publish("/transform/test", datapoint("cpu", "web01").put("tags",
+                                                                                new JsonObject().put("host", 5)));
+        vertx.eventBus().publish("/transform/test", datapoint(null, "web03"));
+        vertx.eventBus().publish("/transform/test", datapoint("mem", "web01"));
+        forwarded.awaitSuccess(5000);
+
+        vertx.eventBus().<JsonObject>send("/stats/transform/test", new JsonObject(), context.asyncAssertSuccess(r -> {
+            context.assertEquals(4L, r.body().getLong("forwarded"));
+            context.assertEquals(1L, r.body().getLong("failed"));
+        }));
+    }
+
+    private static JsonObject datapoint(String name, String host) {
+        return new JsonObject().put("name", name)
+                               .put("tags", new JsonObject().put("host", host).put("pid", "42"))
+                               .put("values", new JsonObject().put("load", 1))
+                               .put("timestamp", 1000L);
+    }
+}